@@ -22,6 +22,7 @@ package net.minecraftforge.artifactural.api.artifact;
 import java.io.File;
 import java.io.IOException;
 import java.io.InputStream;
+import java.nio.file.Path;
 
 import net.minecraftforge.artifactural.api.cache.ArtifactCache;
 import net.minecraftforge.artifactural.api.transform.ArtifactTransformer;
@@ -52,14 +53,48 @@ public interface Artifact {
 
     InputStream openStream() throws IOException, MissingArtifactException;
 
+    /**
+     * Opens a stream over part of this artifact's contents, ending early if the artifact is shorter.
+     * The default implementation skips through {@link #openStream()}, artifacts that can seek override it.
+     *
+     * @param offset Index of the first byte to read
+     * @param length Maximum number of bytes to read
+     */
+    default InputStream openRange(long offset, long length) throws IOException, MissingArtifactException {
+        return Internal.range(openStream(), offset, length);
+    }
+
     interface Cached extends Artifact {
 
         // Gets the file location, AND writes the file to disc if it hasn't already.
         File asFile() throws IOException, MissingArtifactException;
 
+        /**
+         * Same as {@link #asFile()}, for artifacts that can be stored on any {@link java.nio.file.FileSystem}.
+         * Artifacts stored outside the default file system override this, and throw {@link UnsupportedOperationException} from {@link #asFile()}.
+         */
+        default Path asPath() throws IOException, MissingArtifactException {
+            return asFile().toPath();
+        }
+
+        /**
+         * Reads the range directly from the cached file, only touching the requested bytes.
+         */
+        @Override
+        default InputStream openRange(long offset, long length) throws IOException, MissingArtifactException {
+            return Internal.range(asPath(), offset, length);
+        }
+
         // Gets the file location, but doesn't guarantee that it exists. As the wrapped Artifact may not of been written. What's the point of this?
         File getFileLocation() throws IOException, MissingArtifactException;
 
+        /**
+         * Same as {@link #getFileLocation()}, see {@link #asPath()}.
+         */
+        default Path getPathLocation() throws IOException, MissingArtifactException {
+            return getFileLocation().toPath();
+        }
+
     }
 
 }
@@ -20,7 +20,14 @@
 package net.minecraftforge.artifactural.api.artifact;
 
 import java.io.File;
+import java.io.FilterInputStream;
+import java.io.IOException;
 import java.io.InputStream;
+import java.nio.channels.Channels;
+import java.nio.channels.SeekableByteChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
 
 import net.minecraftforge.artifactural.api.cache.ArtifactCache;
 import net.minecraftforge.artifactural.api.transform.ArtifactTransformer;
@@ -134,4 +141,90 @@ final class Internal {
 
     };
 
+    static InputStream range(InputStream stream, long offset, long length) throws IOException {
+        if (offset < 0 || length < 0)
+            throw new IllegalArgumentException("Invalid range: " + offset + ", " + length);
+        try {
+            long remaining = offset;
+            while (remaining > 0) {
+                long skipped = stream.skip(remaining);
+                if (skipped <= 0) {
+                    // skip may stop short without being at the end, so fall back to read to tell the difference
+                    if (stream.read() == -1)
+                        break;
+                    skipped = 1;
+                }
+                remaining -= skipped;
+            }
+        } catch (IOException | RuntimeException e) {
+            stream.close();
+            throw e;
+        }
+        return new RangeInputStream(stream, length);
+    }
+
+    static InputStream range(Path file, long offset, long length) throws IOException {
+        if (offset < 0 || length < 0)
+            throw new IllegalArgumentException("Invalid range: " + offset + ", " + length);
+        SeekableByteChannel channel = Files.newByteChannel(file, StandardOpenOption.READ);
+        try {
+            channel.position(offset);
+        } catch (UnsupportedOperationException e) {
+            // Some file systems can only read front to back
+            channel.close();
+            return range(Files.newInputStream(file), offset, length);
+        } catch (IOException | RuntimeException e) {
+            channel.close();
+            throw e;
+        }
+        return new RangeInputStream(Channels.newInputStream(channel), length);
+    }
+
+    private static class RangeInputStream extends FilterInputStream {
+        private long remaining;
+
+        private RangeInputStream(InputStream in, long length) {
+            super(in);
+            this.remaining = length;
+        }
+
+        @Override
+        public int read() throws IOException {
+            if (remaining <= 0)
+                return -1;
+            int ret = super.read();
+            if (ret != -1)
+                remaining--;
+            return ret;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            if (remaining <= 0)
+                return -1;
+            int ret = super.read(b, off, (int)Math.min(len, remaining));
+            if (ret > 0)
+                remaining -= ret;
+            return ret;
+        }
+
+        @Override
+        public long skip(long n) throws IOException {
+            long ret = super.skip(Math.min(n, remaining));
+            if (ret > 0)
+                remaining -= ret;
+            return ret;
+        }
+
+        @Override
+        public int available() throws IOException {
+            return (int)Math.min(super.available(), remaining);
+        }
+
+        @Override
+        public boolean markSupported() {
+            return false;
+        }
+    }
+
 }
@@ -19,6 +19,9 @@
 
 package net.minecraftforge.artifactural.api.repository;
 
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
 import java.util.function.Function;
 import java.util.function.Predicate;
 
@@ -28,6 +31,26 @@ public interface ArtifactProvider<I> {
 
     Artifact getArtifact(I info);
 
+    /**
+     * Lists the versions of an artifact this provider can supply.
+     *
+     * @see net.minecraftforge.artifactural.api.repository.Repository#getVersions(String, String)
+     * @return All known versions, or an empty collection if this provider can't enumerate them.
+     */
+    default Collection<String> getVersions(String group, String name) {
+        return Collections.emptyList();
+    }
+
+    /**
+     * Describes which artifacts this provider can supply, so callers can skip asking it for anything else.
+     * Providers whose contents change should return a new hint, this is queried on every lookup so it should be a field read.
+     *
+     * @return A hint, or null if this provider can't tell without being asked.
+     */
+    default MembershipHint<I> getMembershipHint() {
+        return null;
+    }
+
     interface Builder<S, I> {
 
         Builder<S, I> filter(Predicate<I> filter);
@@ -40,6 +63,32 @@ public interface ArtifactProvider<I> {
 
             Complete<S, I> provide(ArtifactProvider<I> provider);
 
+            /**
+             * Adds a provider that is always asked before providers of a lower priority.
+             * Providers of the same priority are asked in the order they were added.
+             * {@link #provide(ArtifactProvider)} uses priority 0.
+             */
+            default Complete<S, I> provide(ArtifactProvider<I> provider, int priority) {
+                return provide(provider);
+            }
+
+            /**
+             * Lets providers below {@code priorityFloor} be reordered by how often they supply an artifact and how
+             * long they take to answer, so the provider most likely to answer quickly is asked first.
+             * Providers at or above the floor keep their fixed order ahead of them, use that for any provider
+             * whose artifacts must win over another's.
+             */
+            default Complete<S, I> adaptive(int priorityFloor) {
+                return this;
+            }
+
+            /**
+             * @return The providers in the order they are currently asked.
+             */
+            default List<ArtifactProvider<I>> getProviderOrder() {
+                return Collections.emptyList();
+            }
+
         }
 
     }
@@ -0,0 +1,34 @@
+/*
+ * Artifactural
+ * Copyright (c) 2018-2021.
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation version 2.1
+ * of the License.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+
+package net.minecraftforge.artifactural.api.repository;
+
+/**
+ * Cheap pre-check of whether an {@link ArtifactProvider} could supply an artifact, so it doesn't
+ * have to be asked when it definitely can't.
+ */
+public interface MembershipHint<I> {
+
+    /**
+     * @return False only if the provider definitely can not supply this artifact.
+     *         True if it might, false positives are allowed, false negatives are not.
+     */
+    boolean mightContain(I info);
+
+}
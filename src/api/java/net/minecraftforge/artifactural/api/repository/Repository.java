@@ -20,6 +20,8 @@
 package net.minecraftforge.artifactural.api.repository;
 
 import java.io.File;
+import java.util.Collection;
+import java.util.Collections;
 
 import net.minecraftforge.artifactural.api.artifact.Artifact;
 import net.minecraftforge.artifactural.api.artifact.ArtifactIdentifier;
@@ -36,9 +38,34 @@ public interface Repository {
      * @param group Group
      * @param name Artifact name
      * @return maven-metadata.xml file listing all versions of the artifact this repo can provide. Or null if you don't want to list any.
+     *         If null, one is generated from {@link #getVersions(String, String)} instead.
      */
     default File getMavenMetadata(String group, String name) {
         return null;
     }
 
+    /**
+     * Lists the versions of an artifact this repository can provide, used to resolve
+     * wildcard dependencies such as foo:bar:1.+ without probing every version.
+     * This may be called often, so should be cheap to compute.
+     *
+     * @param group Group
+     * @param name Artifact name
+     * @return All known versions, or an empty collection if this repository can't enumerate them.
+     */
+    default Collection<String> getVersions(String group, String name) {
+        return Collections.emptyList();
+    }
+
+    /**
+     * Identifies everything that affects which artifacts this repository provides and their contents,
+     * such as a hash of the provider and transformer configuration. When it is unchanged, the results
+     * of previous lookups may be reused across daemons without calling {@link #getArtifact(ArtifactIdentifier)}.
+     *
+     * @return A fingerprint without line breaks, or null if results must never be reused.
+     */
+    default String getFingerprint() {
+        return null;
+    }
+
 }
@@ -0,0 +1,311 @@
+/*
+ * Artifactural
+ * Copyright (c) 2018-2021.
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation version 2.1
+ * of the License.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+
+package net.minecraftforge.artifactural.gradle;
+
+import net.minecraftforge.artifactural.api.artifact.Artifact;
+import net.minecraftforge.artifactural.api.artifact.ArtifactIdentifier;
+import net.minecraftforge.artifactural.api.artifact.MissingArtifactException;
+import net.minecraftforge.artifactural.api.repository.Repository;
+import net.minecraftforge.artifactural.base.cache.ArtifactPrewarmer;
+import net.minecraftforge.artifactural.base.cache.FileManifest;
+import net.minecraftforge.artifactural.base.cache.LocatedArtifactCache;
+import net.minecraftforge.artifactural.base.cache.PackStore;
+import net.minecraftforge.artifactural.base.metrics.Metrics;
+import net.minecraftforge.artifactural.base.metrics.MetricsCollector.LookupOutcome;
+import net.minecraftforge.artifactural.base.metrics.TraceRecorder;
+import net.minecraftforge.artifactural.base.repository.VersionIndex;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
+
+/**
+ * Works out what is behind each path Gradle probes under the root of a {@link GradleRepositoryAdapter},
+ * generating artifacts, maven-metadata.xml files and directory listings from the {@link Repository} on demand.
+ *
+ * Returns plain files rather than Gradle resources, so the lookup can be driven without a Gradle runtime, such as by the load test.
+ * Artifacts the repository has are not generated until their {@link Location} is materialized, Gradle probes far more paths
+ * than it ends up reading, such as to find out which metadata sources apply.
+ */
+class ArtifactLocator {
+    private static final int DECODED_PATH_CACHE_SIZE = 4096;
+    private static final String MANIFEST_NAME = ".artifactural-manifest";
+    // Size in bytes below which generated artifacts are kept in a pack file instead of a file each, off unless set
+    private static final String PACK_PROPERTY = "artifactural.cache.pack.threshold";
+
+    private final Repository repository;
+    private final String root;
+    private final LocatedArtifactCache cache;
+    // Gradle probes the same handful of paths over and over, so remember the most recent decodes, keyed by absolute path.
+    private final Cache<String, MavenPath> decodedPaths = CacheBuilder.newBuilder().maximumSize(DECODED_PATH_CACHE_SIZE).build();
+    private final VersionIndex versions = new VersionIndex();
+    // Generated maven-metadata.xml content last written to each path, compared by identity as the index caches its output.
+    private final ConcurrentMap<String, String> writtenMetadata = new ConcurrentHashMap<>();
+    // Null when the repository has no fingerprint, in which case every lookup goes to the repository.
+    private final FileManifest manifest;
+
+    /**
+     * @param root Absolute path of the repository, separated by '/' and ending with one
+     */
+    ArtifactLocator(Repository repository, String root) {
+        this.repository = repository;
+        this.root = root;
+        this.cache = createCache(root);
+        this.manifest = createManifest(repository, root);
+    }
+
+    private static LocatedArtifactCache createCache(String root) {
+        LocatedArtifactCache cache = new LocatedArtifactCache(new File(root));
+        long threshold = Long.getLong(PACK_PROPERTY, 0);
+        if (threshold > 0) {
+            try {
+                PackStore pack = cache.packSmallArtifacts(threshold);
+                synchronized (pack) {
+                    if (!pack.isStarted())
+                        pack.start(1, TimeUnit.HOURS);
+                }
+            } catch (IOException e) {
+                throw new RuntimeException(e);
+            }
+        }
+        return cache;
+    }
+
+    private static FileManifest createManifest(Repository repository, String root) {
+        String fingerprint = repository.getFingerprint();
+        return fingerprint == null ? null : new FileManifest(new File(root, MANIFEST_NAME), fingerprint);
+    }
+
+    private void log(String message) {
+        System.out.println(message);
+    }
+
+    /**
+     * @param path Absolute path, separated by '/'
+     */
+    Location find(String path) {
+        Metrics.Timer timer = Metrics.startLookup();
+        LookupOutcome outcome = LookupOutcome.UNKNOWN_ROOT;
+        TraceRecorder.Span span = TraceRecorder.begin("lookup", path);
+        try {
+            if (path.startsWith(root)) {
+                MavenPath decoded = decodedPaths.getIfPresent(path);
+                if (decoded == null) {
+                    decoded = MavenPath.decode(path.substring(root.length()));
+                    decodedPaths.put(path, decoded);
+                }
+                switch (decoded.getKind()) {
+                    case ARTIFACT:
+                    case CHECKSUM: {
+                        ArtifactIdentifier identifier = decoded.getIdentifier();
+                        File known = getFromManifest(identifier);
+                        if (known != null) {
+                            outcome = LookupOutcome.FOUND;
+                            return new Location(known, null, null);
+                        }
+                        Artifact artifact = repository.getArtifact(identifier);
+                        outcome = artifact.isPresent() ? LookupOutcome.FOUND : LookupOutcome.MISSING;
+                        return locate(artifact, identifier);
+                    }
+                    case METADATA: {
+                        outcome = LookupOutcome.METADATA;
+                        File ret = repository.getMavenMetadata(decoded.getGroup(), decoded.getName());
+                        if (ret != null) {
+                            return new Location(ret, null, null);
+                        }
+                        // Only what the repository lists, versions seen so far would make 1.+ depend on what this daemon happened to serve
+                        versions.set(decoded.getGroup(), decoded.getName(), repository.getVersions(decoded.getGroup(), decoded.getName()));
+                        String xml = versions.getMavenMetadata(decoded.getGroup(), decoded.getName());
+                        if (xml != null) {
+                            return new Location(writeMetadata(path, xml), null, null);
+                        }
+                        break;
+                    }
+                    case DIRECTORY:
+                        outcome = LookupOutcome.DIRECTORY;
+                        if (decoded.getGroup() != null) {
+                            versions.set(decoded.getGroup(), decoded.getName(), repository.getVersions(decoded.getGroup(), decoded.getName()));
+                            List<String> listed = versions.getVersions(decoded.getGroup(), decoded.getName());
+                            if (!listed.isEmpty()) {
+                                return new Location(new File(path), listed, null);
+                            }
+                        }
+                        break;
+                    default:
+                        outcome = LookupOutcome.UNMATCHED;
+                        log("  Matcher Failed: " + path.substring(root.length()));
+                }
+            } else {
+                log("Unknown root: " + path);
+            }
+            return new Location(new File(path), null, null);
+        } finally {
+            span.detail(outcome.name()).close();
+            timer.lookup(outcome);
+        }
+    }
+
+    private File writeMetadata(String path, String xml) {
+        File file = new File(path);
+        if (writtenMetadata.get(path) != xml) {
+            try {
+                file.getParentFile().mkdirs();
+                File tmp = File.createTempFile("maven-metadata", ".tmp", file.getParentFile());
+                Files.write(tmp.toPath(), xml.getBytes(StandardCharsets.UTF_8));
+                Files.move(tmp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            } catch (IOException e) {
+                throw new RuntimeException(e);
+            }
+            writtenMetadata.put(path, xml);
+        }
+        return file;
+    }
+
+    private Location locate(Artifact artifact, ArtifactIdentifier id) {
+        if (!artifact.isPresent())
+            return new Location(cache.getPath(artifact), null, null);
+        Artifact.Cached cached = artifact.optionallyCache(cache);
+        try {
+            return new Location(cached.getFileLocation(), null, () -> {
+                try {
+                    return addToManifest(id, cached.asFile());
+                } catch (MissingArtifactException | IOException e) {
+                    throw new RuntimeException(e);
+                }
+            });
+        } catch (MissingArtifactException | IOException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    /**
+     * @see GradleRepositoryAdapter#getArtifact(ArtifactIdentifier)
+     */
+    File getArtifact(ArtifactIdentifier identifier) {
+        File known = getFromManifest(identifier);
+        if (known != null)
+            return known;
+
+        Artifact art = repository.getArtifact(identifier);
+        if (!art.isPresent())
+            return null;
+
+        Artifact.Cached cached = art.optionallyCache(cache);
+        try {
+            return addToManifest(identifier, cached.asFile());
+        } catch (MissingArtifactException | IOException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    /**
+     * @see GradleRepositoryAdapter#prewarm(Collection, int)
+     */
+    ArtifactPrewarmer.Result prewarm(Collection<? extends ArtifactIdentifier> identifiers, int parallelism) {
+        ArtifactPrewarmer.Result result = ArtifactPrewarmer.prewarm(repository, cache, identifiers, parallelism);
+        for (Map.Entry<ArtifactIdentifier, File> warmed : result.getWarmed().entrySet()) {
+            addToManifest(warmed.getKey(), warmed.getValue());
+        }
+        return result;
+    }
+
+    /**
+     * @return The file cached for this identifier by an earlier lookup, if it is unchanged and the repository's fingerprint still matches.
+     */
+    private File getFromManifest(ArtifactIdentifier identifier) {
+        if (manifest == null)
+            return null;
+        List<File> files = manifest.get(manifestKey(identifier));
+        if (files == null || files.size() != 1)
+            return null;
+        // Used without going through the cache, which would otherwise think it unused and compress it
+        cache.touch(files.get(0));
+        return files.get(0);
+    }
+
+    private File addToManifest(ArtifactIdentifier identifier, File file) {
+        if (manifest != null)
+            manifest.put(manifestKey(identifier), Collections.singletonList(file));
+        return file;
+    }
+
+    private static String manifestKey(ArtifactIdentifier identifier) {
+        return identifier.getGroup() + ':' + identifier.getName() + ':' + identifier.getVersion() + ':' +
+            (identifier.getClassifier() == null ? "" : identifier.getClassifier()) + '@' + identifier.getExtension();
+    }
+
+    /**
+     * What a path resolved to, a file that may not exist, and for directories the versions to list instead of its contents.
+     */
+    static final class Location {
+        private final File file;
+        private final List<String> listing;
+        private final Supplier<File> generator;
+
+        private Location(File file, List<String> listing, Supplier<File> generator) {
+            this.file = file;
+            this.listing = listing;
+            this.generator = generator;
+        }
+
+        /**
+         * @return Where the path points, which for deferred artifacts may not exist until {@link #materialize()} is called
+         */
+        File getFile() {
+            return file;
+        }
+
+        /**
+         * @return Whether this is an artifact that exists, but may not have been generated yet
+         */
+        boolean isDeferred() {
+            return generator != null;
+        }
+
+        /**
+         * Generates the artifact if needed, every call after the first is a cache hit.
+         *
+         * @return The file with the contents, which may be elsewhere than {@link #getFile()}, such as a copy extracted from a pack
+         */
+        File materialize() {
+            return generator == null ? file : generator.get();
+        }
+
+        /**
+         * @return Versions to list, or null if this is not a generated directory listing
+         */
+        List<String> getListing() {
+            return listing;
+        }
+    }
+}
@@ -21,29 +21,107 @@ package net.minecraftforge.artifactural.gradle;
 
 import com.google.common.cache.Cache;
 import com.google.common.cache.CacheBuilder;
+import net.minecraftforge.artifactural.base.cache.FileManifest;
+import net.minecraftforge.artifactural.base.metrics.Metrics;
+import net.minecraftforge.artifactural.base.metrics.TraceRecorder;
 import org.gradle.api.Project;
 import org.gradle.api.artifacts.ClientModule;
 import org.gradle.api.artifacts.Configuration;
 import org.gradle.api.artifacts.Dependency;
 import org.gradle.api.artifacts.DependencyArtifact;
+import org.gradle.api.artifacts.ExternalModuleDependency;
 import org.gradle.api.artifacts.FileCollectionDependency;
 import org.gradle.api.artifacts.ModuleDependency;
+import org.gradle.api.artifacts.ProjectDependency;
+import org.gradle.api.artifacts.ResolvedArtifact;
+import org.gradle.api.artifacts.ResolvedConfiguration;
+import org.gradle.api.artifacts.ResolvedDependency;
+import org.gradle.api.artifacts.repositories.ArtifactRepository;
+import org.gradle.api.artifacts.repositories.UrlArtifactRepository;
 
 import java.io.File;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
 import java.util.Set;
 import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Semaphore;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
 import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Supplier;
 
 public class DependencyResolver {
 
     private final Project project;
     private final AtomicInteger counter = new AtomicInteger(0);
     private final Cache<String, CompletableFuture<Set<File>>> resolved = CacheBuilder.newBuilder().expireAfterWrite(30, TimeUnit.MINUTES).build();
+    private final File storeFile;
+    private volatile FileManifest store;
+    // Threads running inside a resolution, either one of ours or Gradle's own through a repository lookup. Resolutions they
+    // start are part of the outer one, which may hold the last permit, so they never wait for one.
+    private static final ThreadLocal<Boolean> NESTED = new ThreadLocal<>();
+    private volatile Semaphore permits = new Semaphore(Integer.getInteger("artifactural.resolver.parallelism", Math.max(1, Runtime.getRuntime().availableProcessors() / 2)));
+    private volatile long waitTimeout = TimeUnit.SECONDS.toNanos(Long.getLong("artifactural.resolver.timeout", 15 * 60));
 
     public DependencyResolver(Project project) {
+        this(project, null);
+    }
+
+    /**
+     * @param store File to persist resolved dependencies in, so later daemons can reuse them
+     *              without going through Gradle, as long as none of the files changed.
+     *              Changing and dynamic dependencies are always resolved. Null to disable.
+     */
+    public DependencyResolver(Project project, File store) {
         this.project = project;
+        this.storeFile = store;
+        ResolutionTracing.install(project.getGradle());
+    }
+
+    /**
+     * Runs code Gradle calls in the middle of resolving, such as a repository lookup. Resolutions it starts are nested in
+     * Gradle's, so they don't wait for a permit, the resolution Gradle is running may be the one holding it.
+     */
+    static <T> T nested(Supplier<T> action) {
+        Boolean previous = NESTED.get();
+        NESTED.set(Boolean.TRUE);
+        try {
+            return action.get();
+        } finally {
+            if (previous == null)
+                NESTED.remove();
+        }
+    }
+
+    /**
+     * Limits how many Gradle resolutions this resolver runs at once, the rest wait for a free slot.
+     * Resolutions nested inside another one, ours or Gradle's, don't take a slot.
+     * Defaults to half the available processors, or the {@code artifactural.resolver.parallelism} system property.
+     */
+    public void setMaxConcurrentResolutions(int max) {
+        if (max < 1)
+            throw new IllegalArgumentException("Max concurrent resolutions must be at least 1: " + max);
+        this.permits = new Semaphore(max);
+    }
+
+    /**
+     * Sets how long a thread waits for a dependency being resolved by another thread, or for a free slot to resolve one
+     * itself, waiting longer than this fails.
+     * Defaults to 15 minutes, or the {@code artifactural.resolver.timeout} system property in seconds.
+     */
+    public void setWaitTimeout(long timeout, TimeUnit unit) {
+        if (timeout <= 0)
+            throw new IllegalArgumentException("Timeout must be positive: " + timeout);
+        this.waitTimeout = unit.toNanos(timeout);
     }
 
     /**
@@ -51,9 +129,91 @@ public class DependencyResolver {
      * if not cached and returns the set of files.
      */
     public Set<File> resolveDependency(Dependency dependency) {
-        if (dependency instanceof FileCollectionDependency) {
-            return ((FileCollectionDependency) dependency).getFiles().getFiles();
+        return resolveDependencies(Collections.singletonList(dependency)).get(dependency);
+    }
+
+    /**
+     * Resolves many dependencies, downloading the files and their transitives
+     * if not cached and returns the set of files for each dependency.
+     *
+     * Dependencies that are not already resolved, or being resolved on another thread, are
+     * resolved together in one configuration, so Gradle walks the graph once instead of once
+     * per dependency. Like any single configuration, version conflicts between them are
+     * resolved against each other.
+     */
+    public Map<Dependency, Set<File>> resolveDependencies(Collection<? extends Dependency> dependencies) {
+        Map<String, Dependency> claimed = new LinkedHashMap<>();
+        Map<String, CompletableFuture<Set<File>>> futures = new LinkedHashMap<>();
+        Map<Dependency, String> names = new LinkedHashMap<>();
+        Map<Dependency, Set<File>> ret = new LinkedHashMap<>();
+
+        for (Dependency dependency : dependencies) {
+            if (dependency instanceof FileCollectionDependency) {
+                ret.put(dependency, ((FileCollectionDependency) dependency).getFiles().getFiles());
+                continue;
+            }
+            String name = getName(dependency);
+            names.put(dependency, name);
+            if (futures.containsKey(name))
+                continue;
+
+            // If this dep is being resolved on another thread, let it do it
+            CompletableFuture<Set<File>> future = new CompletableFuture<>();
+            CompletableFuture<Set<File>> existing = claim(name, future);
+            futures.put(name, existing);
+            if (existing == future)
+                claimed.put(name, dependency);
         }
+
+        try {
+            // A previous daemon may have resolved them already
+            Map<String, Dependency> toResolve = new LinkedHashMap<>(claimed);
+            FileManifest store = getStore();
+            if (store != null) {
+                for (Iterator<Map.Entry<String, Dependency>> itr = toResolve.entrySet().iterator(); itr.hasNext();) {
+                    Map.Entry<String, Dependency> entry = itr.next();
+                    List<File> files = isStable(entry.getValue()) ? store.get(entry.getKey()) : null;
+                    if (files != null) {
+                        futures.get(entry.getKey()).complete(new LinkedHashSet<>(files));
+                        itr.remove();
+                    }
+                }
+            }
+
+            // No other thread is resolving these deps and we've claimed them, so let's go!
+            if (!toResolve.isEmpty()) {
+                Map<String, Metrics.Timer> timers = new HashMap<>();
+                for (String name : toResolve.keySet())
+                    timers.put(name, Metrics.startResolver());
+                Map<String, Set<File>> files = resolveWithPermit(toResolve);
+                for (Map.Entry<String, Dependency> entry : toResolve.entrySet()) {
+                    String name = entry.getKey();
+                    Set<File> result = files.get(name);
+                    if (store != null && isStable(entry.getValue()))
+                        store.put(name, result);
+                    futures.get(name).complete(result);
+                    timers.get(name).resolverResolve(name);
+                }
+            }
+        } catch (Throwable t) {
+            // Release everyone waiting on our claims, and forget them so the next request tries again.
+            for (String name : claimed.keySet()) {
+                CompletableFuture<Set<File>> future = futures.get(name);
+                if (future.completeExceptionally(t))
+                    resolved.asMap().remove(name, future);
+            }
+            throw t;
+        }
+
+        for (Map.Entry<Dependency, String> entry : names.entrySet()) {
+            String name = entry.getValue();
+            CompletableFuture<Set<File>> future = futures.get(name);
+            ret.put(entry.getKey(), claimed.containsKey(name) ? future.join() : await(name, future));
+        }
+        return ret;
+    }
+
+    private static String getName(Dependency dependency) {
         String name = dependency.getGroup() + ":" + dependency.getName() + ":" + dependency.getVersion();
         if (dependency instanceof ModuleDependency) {
             Set<DependencyArtifact> artifacts = ((ModuleDependency) dependency).getArtifacts();
@@ -62,33 +222,158 @@ public class DependencyResolver {
                 name += ":" + artifact.getClassifier() + "@" + artifact.getExtension();
             }
         }
+        return name;
+    }
 
-        // If this dep is being resolved on another thread, let it do it
-        CompletableFuture<Set<File>> future;
-        boolean found = true;
-        synchronized (resolved) {
-            future = resolved.getIfPresent(name);
-            if (future == null) {
-                resolved.put(name, future = new CompletableFuture<>());
-                found = false;
+    /**
+     * The store is created on first use, as repositories are usually added after the resolver is created.
+     * Everything outside of the coordinate that can change what a dependency resolves to goes in the fingerprint.
+     */
+    private FileManifest getStore() {
+        if (storeFile == null)
+            return null;
+        FileManifest ret = store;
+        if (ret == null) {
+            synchronized (this) {
+                ret = store;
+                if (ret == null) {
+                    StringBuilder fingerprint = new StringBuilder(project.getGradle().getGradleVersion());
+                    for (ArtifactRepository repo : project.getRepositories()) {
+                        fingerprint.append(' ').append(repo.getName());
+                        if (repo instanceof UrlArtifactRepository)
+                            fingerprint.append('=').append(((UrlArtifactRepository) repo).getUrl());
+                    }
+                    store = ret = new FileManifest(storeFile, fingerprint.toString());
+                }
             }
         }
+        return ret;
+    }
 
-        if (found) {
-            try {
-                return future.get();
-            } catch (InterruptedException | ExecutionException ex) {
-                throw new RuntimeException(ex);
+    /**
+     * @return False for anything whose files can change without its coordinate changing, which must never be served from the store.
+     */
+    private static boolean isStable(Dependency dependency) {
+        if (dependency instanceof ProjectDependency)
+            return false;
+        if (dependency instanceof ExternalModuleDependency && ((ExternalModuleDependency) dependency).isChanging())
+            return false;
+        String version = dependency.getVersion();
+        return version != null && !version.isEmpty()
+            && version.indexOf('+') == -1 && version.indexOf('[') == -1 && version.indexOf(']') == -1 && version.indexOf('(') == -1 && version.indexOf(')') == -1
+            && !version.startsWith("latest.") && !version.endsWith("-SNAPSHOT");
+    }
+
+    /**
+     * @return The future already registered for this name, or {@code future} if this thread now owns resolving it.
+     */
+    private CompletableFuture<Set<File>> claim(String name, CompletableFuture<Set<File>> future) {
+        CompletableFuture<Set<File>> existing = resolved.asMap().putIfAbsent(name, future);
+        return existing != null ? existing : future;
+    }
+
+    private Set<File> await(String name, CompletableFuture<Set<File>> future) {
+        Metrics.Timer timer = Metrics.startResolver();
+        try (TraceRecorder.Span span = TraceRecorder.begin("resolver-wait", name)) {
+            return future.get(waitTimeout, TimeUnit.NANOSECONDS);
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            throw new RuntimeException(ex);
+        } catch (ExecutionException ex) {
+            throw new RuntimeException("Failed to resolve " + name, ex.getCause());
+        } catch (TimeoutException ex) {
+            throw new RuntimeException("Timed out waiting for another thread to resolve " + name, ex);
+        } finally {
+            timer.resolverWait(name);
+        }
+    }
+
+    private Map<String, Set<File>> resolveWithPermit(Map<String, Dependency> dependencies) {
+        if (NESTED.get() != null)
+            return resolve(dependencies);
+
+        Semaphore permits = this.permits;
+        try {
+            if (!permits.tryAcquire(waitTimeout, TimeUnit.NANOSECONDS))
+                throw new RuntimeException("Timed out waiting for a free slot to resolve " + dependencies.keySet());
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            throw new RuntimeException(ex);
+        }
+        try {
+            return nested(() -> resolve(dependencies));
+        } finally {
+            permits.release();
+        }
+    }
+
+    private Map<String, Set<File>> resolve(Map<String, Dependency> dependencies) {
+        Map<String, Set<File>> ret = new HashMap<>();
+        // Two requests for the same module would be merged into one node of the graph, so their
+        // artifacts could not be told apart. Give each its own round instead.
+        Map<String, Dependency> remaining = new LinkedHashMap<>(dependencies);
+        while (!remaining.isEmpty()) {
+            Map<String, Dependency> round = new LinkedHashMap<>();
+            Set<String> modules = new HashSet<>();
+            for (Iterator<Map.Entry<String, Dependency>> itr = remaining.entrySet().iterator(); itr.hasNext();) {
+                Map.Entry<String, Dependency> entry = itr.next();
+                if (modules.add(entry.getValue().getGroup() + ':' + entry.getValue().getName())) {
+                    round.put(entry.getKey(), entry.getValue());
+                    itr.remove();
+                }
             }
+            ret.putAll(resolveRound(round));
         }
+        return ret;
+    }
 
-        // No other thread is resolving this dep and we've claimed it, so let's go!
+    private Map<String, Set<File>> resolveRound(Map<String, Dependency> dependencies) {
+        String trace = dependencies.size() == 1 ? dependencies.keySet().iterator().next() : dependencies.size() + " dependencies";
         int currentID = counter.getAndIncrement();
-        Configuration cfg = project.getConfigurations().maybeCreate("resolve_dep_" + currentID);
-        cfg.getDependencies().add(dependency);
-        Set<File> files = cfg.resolve();
-        project.getConfigurations().remove(cfg);
-        future.complete(files);
+        try (TraceRecorder.Span span = TraceRecorder.begin("resolver", trace)) {
+            Configuration cfg = project.getConfigurations().maybeCreate("resolve_dep_" + currentID);
+            Set<ResolvedDependency> firstLevel;
+            try {
+                cfg.getDependencies().addAll(dependencies.values());
+                if (dependencies.size() == 1)
+                    return Collections.singletonMap(trace, cfg.resolve());
+
+                ResolvedConfiguration result = cfg.getResolvedConfiguration();
+                result.rethrowFailure();
+                firstLevel = result.getFirstLevelModuleDependencies();
+            } finally {
+                project.getConfigurations().remove(cfg);
+            }
+
+            Map<String, Set<File>> ret = new HashMap<>();
+            for (Map.Entry<String, Dependency> entry : dependencies.entrySet()) {
+                Set<File> files = getFiles(entry.getValue(), firstLevel);
+                // Not a module Gradle can map back to the request, such as a self resolving dependency, or one whose version
+                // another member of the batch changed, so resolve it on its own. What it resolves to must not depend on what
+                // it was batched with, the result is cached, and stored under its coordinate.
+                ret.put(entry.getKey(), files != null ? files : resolveRound(Collections.singletonMap(entry.getKey(), entry.getValue())).get(entry.getKey()));
+            }
+            return ret;
+        }
+    }
+
+    /**
+     * @return The files the batch resolved for {@code dependency}, or null if it isn't in the batch's result as requested,
+     *         including when conflict resolution picked another version than the one asked for, or any version for a dynamic one.
+     */
+    private static Set<File> getFiles(Dependency dependency, Set<ResolvedDependency> firstLevel) {
+        Set<File> files = null;
+        boolean transitive = !(dependency instanceof ModuleDependency) || ((ModuleDependency) dependency).isTransitive();
+        for (ResolvedDependency resolved : firstLevel) {
+            if (!Objects.equals(resolved.getModuleGroup(), dependency.getGroup()) || !resolved.getModuleName().equals(dependency.getName()))
+                continue;
+            if (!Objects.equals(resolved.getModuleVersion(), dependency.getVersion()))
+                return null;
+            if (files == null)
+                files = new LinkedHashSet<>();
+            for (ResolvedArtifact artifact : transitive ? resolved.getAllModuleArtifacts() : resolved.getModuleArtifacts())
+                files.add(artifact.getFile());
+        }
         return files;
     }
 
@@ -19,13 +19,11 @@
 
 package net.minecraftforge.artifactural.gradle;
 
-import net.minecraftforge.artifactural.api.artifact.Artifact;
 import net.minecraftforge.artifactural.api.artifact.ArtifactIdentifier;
-import net.minecraftforge.artifactural.api.artifact.MissingArtifactException;
 import net.minecraftforge.artifactural.api.repository.Repository;
-import net.minecraftforge.artifactural.base.artifact.SimpleArtifactIdentifier;
-import net.minecraftforge.artifactural.base.cache.LocatedArtifactCache;
+import net.minecraftforge.artifactural.base.cache.ArtifactPrewarmer;
 
+import org.gradle.api.Project;
 import org.gradle.api.artifacts.ComponentMetadataSupplierDetails;
 import org.gradle.api.artifacts.component.ComponentArtifactIdentifier;
 import org.gradle.api.artifacts.component.ModuleComponentIdentifier;
@@ -45,6 +43,8 @@ import org.gradle.api.internal.artifacts.repositories.resolver.ExternalResourceR
 import org.gradle.api.internal.artifacts.repositories.resolver.MavenResolver;
 import org.gradle.api.internal.artifacts.repositories.resolver.MetadataFetchingCost;
 import org.gradle.api.internal.component.ArtifactType;
+import org.gradle.api.logging.Logger;
+import org.gradle.api.logging.Logging;
 import org.gradle.api.model.ObjectFactory;
 import org.gradle.internal.action.InstantiatingAction;
 import org.gradle.internal.component.external.model.ModuleComponentResolveMetadata;
@@ -73,20 +73,30 @@ import org.gradle.internal.resource.metadata.ExternalResourceMetaData;
 import org.gradle.internal.resource.transfer.DefaultCacheAwareExternalResourceAccessor;
 
 import java.io.File;
-import java.io.IOException;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
 import java.net.URI;
 import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
 import java.util.Map;
-import java.util.regex.Matcher;
-import java.util.regex.Pattern;
 
 public class GradleRepositoryAdapter extends AbstractArtifactRepository implements ResolutionAwareRepository {
 
-    private static final Pattern URL_PATTERN = Pattern.compile(
-            "^(?<group>\\S+(?:/\\S+)*)/(?<name>\\S+)/(?<version>\\S+)/" +
-                    "\\2-\\3(?:-(?<classifier>[^.\\s]+))?\\.(?<extension>\\S+)$");
+    /**
+     * Same as {@link #add(RepositoryHandler, String, File, Repository)} on the project's repositories, and ties
+     * {@link ResolutionTracing} to the build, so the trace is written when the build finishes.
+     */
+    public static GradleRepositoryAdapter add(Project project, String name, File local, Repository repository) {
+        ResolutionTracing.install(project.getGradle());
+        return add(project.getRepositories(), name, local, repository);
+    }
 
     public static GradleRepositoryAdapter add(RepositoryHandler handler, String name, File local, Repository repository) {
+        // There's no way to the build from here, so a trace requested through the system property is written on exit
+        ResolutionTracing.installUntilExit();
         BaseRepositoryFactory factory = ReflectionUtils.get(handler, "repositoryFactory"); // We reflect here and create it manually so it DOESN'T get attached.
         DefaultMavenLocalArtifactRepository maven = (DefaultMavenLocalArtifactRepository)factory.createMavenLocalRepository(); // We use maven local because it bypasses the caching and coping to .m2
         maven.setUrl(local);
@@ -104,11 +114,8 @@ public class GradleRepositoryAdapter extends AbstractArtifactRepository implemen
         return repo;
     }
 
-    private final Repository repository;
     private final DefaultMavenLocalArtifactRepository local;
-    private final String root;
-    private final LocatedArtifactCache cache;
-
+    private final ArtifactLocator locator;
 
     // This constructor is modified via bytecode manipulation in 'build.gradle'
     // DO NOT change this without modifying 'build.gradle'
@@ -116,10 +123,8 @@ public class GradleRepositoryAdapter extends AbstractArtifactRepository implemen
     private GradleRepositoryAdapter(Repository repository, DefaultMavenLocalArtifactRepository local) {
         // This is replaced with a call to 'super()', with no arguments
         super(null);
-        this.repository = repository;
         this.local = local;
-        this.root = cleanRoot(local.getUrl());
-        this.cache = new LocatedArtifactCache(new File(root));
+        this.locator = new ArtifactLocator(repository, cleanRoot(local.getUrl()));
     }
 
 
@@ -128,10 +133,8 @@ public class GradleRepositoryAdapter extends AbstractArtifactRepository implemen
         super(objectFactory);
         // This duplication from the above two-argument constructor is unfortunate,
         // but unavoidable
-        this.repository = repository;
         this.local = local;
-        this.root = cleanRoot(local.getUrl());
-        this.cache = new LocatedArtifactCache(new File(root));
+        this.locator = new ArtifactLocator(repository, cleanRoot(local.getUrl()));
     }
 
     @Override
@@ -237,9 +240,6 @@ public class GradleRepositoryAdapter extends AbstractArtifactRepository implemen
         private void debug(String message) {
             //System.out.println(message);
         }
-        private void log(String message) {
-            System.out.println(message);
-        }
 
         @Override
         public ExternalResourceRepository withProgressLogging() {
@@ -276,62 +276,130 @@ public class GradleRepositoryAdapter extends AbstractArtifactRepository implemen
         }
 
         private LocallyAvailableExternalResource findArtifact(String path) {
-            if (path.startsWith(root)) {
-                String relative = path.substring(root.length());
-                debug("  Relative: " + relative);
-                Matcher matcher = URL_PATTERN.matcher(relative);
-                if (matcher.matches()) {
-                    ArtifactIdentifier identifier = new SimpleArtifactIdentifier(
-                        matcher.group("group").replace('/', '.'),
-                        matcher.group("name"),
-                        matcher.group("version"),
-                        matcher.group("classifier"),
-                        matcher.group("extension"));
-                    Artifact artifact = repository.getArtifact(identifier);
-                    return wrap(artifact, identifier);
-                } else if (relative.endsWith("maven-metadata.xml")) {
-                    String tmp = relative.substring(0, relative.length() - "maven-metadata.xml".length() - 1);
-                    int idx = tmp.lastIndexOf('/');
-                    if (idx != -1) {
-                        File ret = repository.getMavenMetadata(tmp.substring(0, idx - 1), tmp.substring(idx));
-                        if (ret != null) {
-                            return new LocalFileStandInExternalResource(ret, fileSystem);
+            // Gradle is resolving, anything the providers resolve in turn is part of that
+            ArtifactLocator.Location location = DependencyResolver.nested(() -> locator.find(path));
+            if (location.getListing() != null)
+                return new VersionListingResource(location.getFile(), fileSystem, location.getListing());
+            if (location.isDeferred())
+                return DeferredArtifactResource.create(location, fileSystem);
+            return new LocalFileStandInExternalResource(location.getFile(), fileSystem);
+        }
+    }
+
+    /**
+     * Stand in for a group/name directory, listing the versions from the index instead of what is on disk.
+     */
+    private static class VersionListingResource extends LocalFileStandInExternalResource {
+        private final List<String> versions;
+
+        private VersionListingResource(File file, FileSystem fileSystem, List<String> versions) {
+            super(file, fileSystem);
+            this.versions = versions;
+        }
+
+        @Override
+        public List<String> list() {
+            return versions;
+        }
+    }
+
+    /**
+     * Stand in for an artifact the repository has, which is only generated once Gradle asks anything about its contents.
+     * Creating it and reading its URI or name costs nothing; checking that it exists or reading its metadata generates
+     * it, so Gradle only ever sees the real file. If generating fails, the failure is logged and the artifact reported
+     * as missing, the same as any other path this repository doesn't have.
+     *
+     * A proxy rather than a subclass, as the read methods differ between Gradle versions, and any of them that wasn't
+     * overridden would read the file before it exists. It implements only {@link LocallyAvailableExternalResource},
+     * which is what resources are returned as on every Gradle version, rather than whatever the stand in class happens
+     * to implement on the running one.
+     */
+    private static class DeferredArtifactResource implements InvocationHandler {
+        private static final Logger LOGGER = Logging.getLogger(DeferredArtifactResource.class);
+        private final ArtifactLocator.Location location;
+        private final FileSystem fileSystem;
+        private final LocalFileStandInExternalResource standIn;
+        private volatile LocalFileStandInExternalResource materialized;
+        private volatile RuntimeException failure;
+
+        private DeferredArtifactResource(ArtifactLocator.Location location, FileSystem fileSystem) {
+            this.location = location;
+            this.fileSystem = fileSystem;
+            this.standIn = new LocalFileStandInExternalResource(location.getFile(), fileSystem);
+        }
+
+        private static LocallyAvailableExternalResource create(ArtifactLocator.Location location, FileSystem fileSystem) {
+            return (LocallyAvailableExternalResource)Proxy.newProxyInstance(GradleRepositoryAdapter.class.getClassLoader(),
+                new Class<?>[] { LocallyAvailableExternalResource.class }, new DeferredArtifactResource(location, fileSystem));
+        }
+
+        /**
+         * @return The stand in for the generated file, or null if generating it failed
+         */
+        private LocalFileStandInExternalResource materialize() {
+            LocalFileStandInExternalResource ret = materialized;
+            if (ret == null && failure == null) {
+                synchronized (this) {
+                    ret = materialized;
+                    if (ret == null && failure == null) {
+                        try {
+                            materialized = ret = new LocalFileStandInExternalResource(DependencyResolver.nested(location::materialize), fileSystem);
+                        } catch (RuntimeException e) {
+                            LOGGER.warn("Failed to generate " + location.getFile(), e);
+                            failure = e;
                         }
                     }
-                } else if (relative.endsWith("/")) {
-                    debug("    Directory listing not supported");
-                } else {
-                    log("  Matcher Failed: " + relative);
                 }
-            } else {
-                log("Unknown root: " + path);
             }
-            return new LocalFileStandInExternalResource(new File(path), fileSystem);
+            return ret;
         }
 
-        private LocallyAvailableExternalResource wrap(Artifact artifact, ArtifactIdentifier id) {
-            if (!artifact.isPresent())
-                return new LocalFileStandInExternalResource(cache.getPath(artifact), fileSystem);
-            Artifact.Cached cached = artifact.optionallyCache(cache);
+        @Override
+        public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+            if (args == null || args.length == 0) {
+                switch (method.getName()) {
+                    case "getURI":
+                    case "getDisplayName":
+                    case "getBaseName":
+                    case "toString":
+                        return method.invoke(standIn);
+                    case "hashCode": return System.identityHashCode(proxy);
+                    default: break;
+                }
+            } else if (args.length == 1 && method.getName().equals("equals")) {
+                return proxy == args[0];
+            }
+            LocalFileStandInExternalResource target = materialize();
+            if (target == null) {
+                // Not found, as far as Gradle's existence checks go, anything that reads it gets why
+                switch (method.getName()) {
+                    case "exists": return false;
+                    case "getMetaData": return null;
+                    default: throw failure;
+                }
+            }
             try {
-                return new LocalFileStandInExternalResource(cached.asFile(), fileSystem);
-            } catch (MissingArtifactException | IOException e) {
-                throw new RuntimeException(e);
+                return method.invoke(target, args);
+            } catch (InvocationTargetException e) {
+                throw e.getCause();
             }
         }
     }
 
     //TODO: Make this a artifact provider interface with a proper API so we dont have direct reference to GradleRepoAdapter in consumers.
     public File getArtifact(ArtifactIdentifier identifier) {
-        Artifact art = repository.getArtifact(identifier);
-        if (!art.isPresent())
-            return null;
+        return locator.getArtifact(identifier);
+    }
 
-        Artifact.Cached cached = art.optionallyCache(cache);
-        try {
-            return cached.asFile();
-        } catch (MissingArtifactException | IOException e) {
-            throw new RuntimeException(e);
-        }
+    /**
+     * Generates every artifact in {@code identifiers} into this repository's cache, in parallel,
+     * so later requests from Gradle are served straight from disk. Intended for build start,
+     * when the needed artifacts are already known, for example from a lockfile.
+     *
+     * @param parallelism Maximum number of artifacts generated at once.
+     * @return Which identifiers were cached, missing or failed. Blocks until all of them are done.
+     */
+    public ArtifactPrewarmer.Result prewarm(Collection<? extends ArtifactIdentifier> identifiers, int parallelism) {
+        return locator.prewarm(identifiers, parallelism);
     }
 }
@@ -0,0 +1,192 @@
+/*
+ * Artifactural
+ * Copyright (c) 2018-2021.
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation version 2.1
+ * of the License.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+
+package net.minecraftforge.artifactural.gradle;
+
+import net.minecraftforge.artifactural.api.artifact.ArtifactIdentifier;
+import net.minecraftforge.artifactural.base.artifact.SimpleArtifactIdentifier;
+
+/**
+ * A path relative to a repository root, decoded according to the maven layout:
+ * <pre>
+ *   group/as/path/name/version/name-version(-classifier).extension
+ *   group/as/path/name/maven-metadata.xml
+ * </pre>
+ * Decoding is a single linear scan, it accepts exactly the same artifact paths as the regex
+ * {@code ^(\S+(?:/\S+)*)/(\S+)/(\S+)/\2-\3(?:-([^.\s]+))?\.(\S+)$} when the name, version and file
+ * name are single path segments, which is the only form Gradle requests.
+ * Instances are immutable so they can be shared between threads.
+ */
+final class MavenPath {
+
+    enum Kind {
+        ARTIFACT,
+        /** A checksum sidecar of an artifact, the identifier's extension includes the checksum suffix, such as {@code jar.sha1} */
+        CHECKSUM,
+        METADATA,
+        DIRECTORY,
+        UNMATCHED
+    }
+
+    private static final String METADATA_FILE = "maven-metadata.xml";
+    private static final String[] CHECKSUMS = { ".sha1", ".md5", ".sha256", ".sha512" };
+    private static final MavenPath UNMATCHED = new MavenPath(Kind.UNMATCHED, null, null, null);
+
+    private final Kind kind;
+    private final ArtifactIdentifier identifier;
+    private final String group;
+    private final String name;
+
+    private MavenPath(Kind kind, ArtifactIdentifier identifier, String group, String name) {
+        this.kind = kind;
+        this.identifier = identifier;
+        this.group = group;
+        this.name = name;
+    }
+
+    public Kind getKind() {
+        return kind;
+    }
+
+    /**
+     * @return The decoded identifier for {@link Kind#ARTIFACT} and {@link Kind#CHECKSUM} paths, null otherwise.
+     */
+    public ArtifactIdentifier getIdentifier() {
+        return identifier;
+    }
+
+    /**
+     * @return The dotted group for {@link Kind#METADATA} paths, anything with an identifier, and directories
+     *         that could be a group/name pair. Null otherwise.
+     */
+    public String getGroup() {
+        return group;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    @Override
+    public String toString() {
+        return "MavenPath(" + kind + (identifier != null ? ", " + identifier : group != null ? ", " + group + ':' + name : "") + ")";
+    }
+
+    static MavenPath decode(String path) {
+        int length = path.length();
+        if (length == 0)
+            return UNMATCHED;
+        if (path.charAt(length - 1) == '/')
+            return decodeDirectory(path);
+
+        // Find the last three separators: group/name/version/file
+        int fileStart = -1, versionStart = -1, nameStart = -1;
+        for (int x = length - 1; x >= 0; x--) {
+            char c = path.charAt(x);
+            if (isSpace(c))
+                return UNMATCHED;
+            if (c == '/') {
+                if (fileStart == -1) {
+                    fileStart = x + 1;
+                } else if (versionStart == -1) {
+                    versionStart = x + 1;
+                } else if (nameStart == -1) {
+                    nameStart = x + 1;
+                    // Remaining characters are the group, only need to check them for whitespace
+                    for (int y = x - 1; y >= 0; y--)
+                        if (isSpace(path.charAt(y)))
+                            return UNMATCHED;
+                    break;
+                }
+            }
+        }
+        if (fileStart == -1 || versionStart == -1)
+            return UNMATCHED;
+
+        if (length - fileStart == METADATA_FILE.length() && path.startsWith(METADATA_FILE, fileStart)) {
+            // group/name/maven-metadata.xml, what we called 'version' is actually the name
+            String group = path.substring(0, versionStart - 1).replace('/', '.');
+            return new MavenPath(Kind.METADATA, null, group, path.substring(versionStart, fileStart - 1));
+        }
+
+        if (nameStart == -1 || nameStart - 1 == 0)
+            return UNMATCHED;
+
+        int nameLength = versionStart - 1 - nameStart;
+        int versionLength = fileStart - 1 - versionStart;
+        if (nameLength == 0 || versionLength == 0)
+            return UNMATCHED;
+
+        // File must start with name-version
+        int pos = fileStart;
+        if (!path.regionMatches(pos, path, nameStart, nameLength))
+            return UNMATCHED;
+        pos += nameLength;
+        if (pos >= length || path.charAt(pos) != '-')
+            return UNMATCHED;
+        pos++;
+        if (!path.regionMatches(pos, path, versionStart, versionLength))
+            return UNMATCHED;
+        pos += versionLength;
+        if (pos >= length)
+            return UNMATCHED;
+
+        String classifier = null;
+        char next = path.charAt(pos);
+        if (next == '-') {
+            int dot = path.indexOf('.', pos + 1);
+            if (dot == -1 || dot == pos + 1)
+                return UNMATCHED;
+            classifier = path.substring(pos + 1, dot);
+            pos = dot;
+        } else if (next != '.') {
+            return UNMATCHED;
+        }
+        if (pos + 1 >= length)
+            return UNMATCHED;
+
+        String extension = path.substring(pos + 1);
+        String group = path.substring(0, nameStart - 1).replace('/', '.');
+        String name = path.substring(nameStart, versionStart - 1);
+        ArtifactIdentifier identifier = new SimpleArtifactIdentifier(group, name, path.substring(versionStart, fileStart - 1), classifier, extension);
+        return new MavenPath(isChecksum(path) ? Kind.CHECKSUM : Kind.ARTIFACT, identifier, group, name);
+    }
+
+    // group/as/path/name/ which is listed to find the versions of name
+    private static MavenPath decodeDirectory(String path) {
+        int end = path.length() - 1;
+        int idx = path.lastIndexOf('/', end - 1);
+        if (idx <= 0 || idx == end - 1)
+            return new MavenPath(Kind.DIRECTORY, null, null, null);
+        return new MavenPath(Kind.DIRECTORY, null, path.substring(0, idx).replace('/', '.'), path.substring(idx + 1, end));
+    }
+
+    // Same set as the regex \s
+    private static boolean isSpace(char c) {
+        return c == ' ' || c == '\t' || c == '\n' || c == '\u000B' || c == '\f' || c == '\r';
+    }
+
+    private static boolean isChecksum(String path) {
+        for (String ext : CHECKSUMS)
+            if (path.endsWith(ext))
+                return true;
+        return false;
+    }
+
+}
@@ -21,61 +21,88 @@ package net.minecraftforge.artifactural.gradle;
 
 import net.minecraftforge.fml.unsafe.UnsafeHacks;
 
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
 import java.lang.reflect.Field;
 import java.lang.reflect.Method;
 import java.lang.reflect.Modifier;
+import java.util.Optional;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 import java.util.function.UnaryOperator;
 
+/**
+ * Reflective access to Gradle internals.
+ *
+ * Fields and methods are looked up once per class and name, and kept as {@link MethodHandle}s,
+ * so repeating the same access, as {@link GradleRepositoryAdapter#createResolver()} does for every
+ * configuration, only costs a map lookup per path segment.
+ */
 public class ReflectionUtils {
+    private static final MethodHandles.Lookup LOOKUP = MethodHandles.lookup();
+    private static final MethodType GETTER = MethodType.methodType(Object.class, Object.class);
+    private static final MethodType SETTER = MethodType.methodType(void.class, Object.class, Object.class);
+    private static final MethodType INVOKER = MethodType.methodType(Object.class, Object.class, Object[].class);
+
+    private static final ConcurrentMap<String, String[]> PATHS = new ConcurrentHashMap<>();
+    private static final ClassValue<ConcurrentMap<String, Optional<Accessor>>> FIELDS = new ClassValue<ConcurrentMap<String, Optional<Accessor>>>() {
+        @Override
+        protected ConcurrentMap<String, Optional<Accessor>> computeValue(Class<?> type) {
+            return new ConcurrentHashMap<>();
+        }
+    };
+    private static final ClassValue<ConcurrentMap<String, MethodHandle>> METHODS = new ClassValue<ConcurrentMap<String, MethodHandle>>() {
+        @Override
+        protected ConcurrentMap<String, MethodHandle> computeValue(Class<?> type) {
+            return new ConcurrentHashMap<>();
+        }
+    };
 
     @SuppressWarnings("unchecked")
     public static <T> void alter(Object target, String name, UnaryOperator<T> operator) {
-        try {
-            int idx = name.lastIndexOf('.');
-            if (idx != -1) {
-                target = drillField(target, name.substring(0, idx));
-                if (target == null) throw new IllegalStateException("Could not find field '" + name + "'");
-                name = name.substring(idx + 1);
-            }
-            Field f = findField(target.getClass(), name);
-            if (f == null) throw new IllegalStateException("Could not find '" + name + "'");
-
-            T oldV = (T)f.get(target);
-            T newV = operator.apply(oldV);
-            if (Modifier.isFinal(f.getModifiers())) {
-                UnsafeHacks.setField(f, target, newV);
-            } else {
-                f.set(target, newV);
-            }
+        int idx = name.lastIndexOf('.');
+        if (idx != -1) {
+            target = drillField(target, name.substring(0, idx));
+            if (target == null) throw new IllegalStateException("Could not find field '" + name + "'");
+            name = name.substring(idx + 1);
+        }
+        Accessor f = findField(target.getClass(), name);
+        if (f == null) throw new IllegalStateException("Could not find '" + name + "'");
 
-            if (f.get(target) != newV) {
-                throw new IllegalStateException("Failed to set new value on " + f.getDeclaringClass().getName() + "." + f.getName());
-            }
-        } catch (IllegalAccessException ex) {
-            throw new RuntimeException(ex);
+        T oldV = (T)f.get(target);
+        T newV = operator.apply(oldV);
+        f.set(target, newV);
+
+        if (f.get(target) != newV) {
+            throw new IllegalStateException("Failed to set new value on " + f.field.getDeclaringClass().getName() + "." + f.field.getName());
         }
     }
 
     private static Object drillField(Object obj, String path) {
-        for (String name : path.split("\\.")) {
+        for (String name : PATHS.computeIfAbsent(path, p -> p.split("\\."))) {
             if (obj == null) return null;
-            Field f = findField(obj.getClass(), name);
+            Accessor f = findField(obj.getClass(), name);
             if (f == null) return null;
-            try {
-                obj = f.get(obj);
-            } catch (IllegalAccessException e) {
-                return null;
-            }
+            obj = f.get(obj);
         }
         return obj;
     }
 
-    private static Field findField(Class<?> clazz, String name) {
+    private static Accessor findField(Class<?> clazz, String name) {
+        return FIELDS.get(clazz).computeIfAbsent(name, k -> Optional.ofNullable(lookupField(clazz, k))).orElse(null);
+    }
+
+    private static Accessor lookupField(Class<?> clazz, String name) {
         while (clazz != Object.class) {
             for (Field f : clazz.getDeclaredFields()) {
                 if (f.getName().equals(name)) {
                     f.setAccessible(true);
-                    return f;
+                    try {
+                        return new Accessor(f);
+                    } catch (IllegalAccessException ex) {
+                        throw new RuntimeException(ex);
+                    }
                 }
             }
             clazz = clazz.getSuperclass();
@@ -89,28 +116,70 @@ public class ReflectionUtils {
     @SuppressWarnings("unchecked")
     public static <T> T invoke(Object target, Class<?> type, String name, Object... args) {
         try {
-            Method method = type.getDeclaredMethod(name);
-            method.setAccessible(true);
-            return (T) method.invoke(target, args);
-        } catch (Exception ex) {
+            MethodHandle handle = METHODS.get(type).computeIfAbsent(name, k -> {
+                try {
+                    Method method = type.getDeclaredMethod(k);
+                    method.setAccessible(true);
+                    return LOOKUP.unreflect(method).asSpreader(Object[].class, method.getParameterCount()).asType(INVOKER);
+                } catch (NoSuchMethodException | IllegalAccessException ex) {
+                    throw new RuntimeException(ex);
+                }
+            });
+            return (T) handle.invokeExact(target, args);
+        } catch (RuntimeException | Error ex) {
+            throw ex;
+        } catch (Throwable ex) {
             throw new RuntimeException(ex);
         }
     }
 
     @SuppressWarnings("unchecked")
     public static <T> T get(Object target, String name) {
-        try {
-            int idx = name.lastIndexOf('.');
-            if (idx != -1) {
-                target = drillField(target, name.substring(0, idx));
-                if (target == null) throw new IllegalStateException("Could not find field '" + name + "'");
-                name = name.substring(idx + 1);
+        int idx = name.lastIndexOf('.');
+        if (idx != -1) {
+            target = drillField(target, name.substring(0, idx));
+            if (target == null) throw new IllegalStateException("Could not find field '" + name + "'");
+            name = name.substring(idx + 1);
+        }
+        Accessor f = findField(target.getClass(), name);
+        if (f == null) throw new IllegalStateException("Could not find '" + name + "'");
+        return (T)f.get(target);
+    }
+
+    private static class Accessor {
+        private final Field field;
+        private final MethodHandle getter;
+        // Null for final fields, which can only be set through UnsafeHacks
+        private final MethodHandle setter;
+
+        private Accessor(Field field) throws IllegalAccessException {
+            this.field = field;
+            this.getter = LOOKUP.unreflectGetter(field).asType(GETTER);
+            this.setter = Modifier.isFinal(field.getModifiers()) ? null : LOOKUP.unreflectSetter(field).asType(SETTER);
+        }
+
+        private Object get(Object target) {
+            try {
+                return (Object) getter.invokeExact(target);
+            } catch (RuntimeException | Error ex) {
+                throw ex;
+            } catch (Throwable ex) {
+                throw new RuntimeException(ex);
+            }
+        }
+
+        private void set(Object target, Object value) {
+            if (setter == null) {
+                UnsafeHacks.setField(field, target, value);
+                return;
+            }
+            try {
+                setter.invokeExact(target, value);
+            } catch (RuntimeException | Error ex) {
+                throw ex;
+            } catch (Throwable ex) {
+                throw new RuntimeException(ex);
             }
-            Field f = findField(target.getClass(), name);
-            if (f == null) throw new IllegalStateException("Could not find '" + name + "'");
-            return (T)f.get(target);
-        } catch (IllegalAccessException ex) {
-            throw new RuntimeException(ex);
         }
     }
 }
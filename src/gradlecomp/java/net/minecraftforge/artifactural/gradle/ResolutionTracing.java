@@ -0,0 +1,99 @@
+/*
+ * Artifactural
+ * Copyright (c) 2018-2021.
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation version 2.1
+ * of the License.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+
+package net.minecraftforge.artifactural.gradle;
+
+import net.minecraftforge.artifactural.base.metrics.TraceRecorder;
+
+import org.gradle.api.invocation.Gradle;
+import org.gradle.api.logging.Logger;
+import org.gradle.api.logging.Logging;
+
+import java.io.File;
+import java.io.IOException;
+import java.lang.ref.WeakReference;
+
+/**
+ * Ties a {@link TraceRecorder} to the lifetime of a build.
+ *
+ * Enabled by running Gradle with {@code -Dartifactural.trace=path/to/trace.json}, and optionally
+ * {@code -Dartifactural.trace.capacity=N} to change how many spans are kept. The trace is written
+ * when the root build finishes, or when the JVM exits if nothing passed the build in, as with
+ * repositories added through {@link GradleRepositoryAdapter#add(org.gradle.api.artifacts.dsl.RepositoryHandler, String, File,
+ * net.minecraftforge.artifactural.api.repository.Repository)}, which under a daemon is when the daemon stops.
+ */
+public class ResolutionTracing {
+    public static final String PROPERTY = "artifactural.trace";
+    private static final int DEFAULT_CAPACITY = 1 << 16;
+    private static final Logger LOGGER = Logging.getLogger(ResolutionTracing.class);
+
+    private static WeakReference<Gradle> current = new WeakReference<>(null);
+    private static boolean untilExit;
+
+    /**
+     * Starts tracing for this build if requested through the system property, does nothing otherwise.
+     */
+    public static void install(Gradle gradle) {
+        String output = System.getProperty(PROPERTY);
+        if (output == null || output.isEmpty())
+            return;
+        install(gradle, new File(output), Integer.getInteger(PROPERTY + ".capacity", DEFAULT_CAPACITY));
+    }
+
+    /**
+     * Starts tracing if requested through the system property, for callers without a build to tie it to.
+     * The trace is written when the JVM exits, a build installed later takes over and writes it when it finishes instead.
+     */
+    public static synchronized void installUntilExit() {
+        String output = System.getProperty(PROPERTY);
+        if (output == null || output.isEmpty() || untilExit || current.get() != null)
+            return;
+        untilExit = true;
+        TraceRecorder.start(Integer.getInteger(PROPERTY + ".capacity", DEFAULT_CAPACITY));
+        Runtime.getRuntime().addShutdownHook(new Thread(() -> write(new File(output)), "Artifactural Trace Writer"));
+    }
+
+    /**
+     * Starts tracing for this build, writing the Chrome trace to {@code output} when it finishes.
+     * Calling this multiple times for the same build is a no-op.
+     */
+    public static synchronized void install(Gradle gradle, File output, int capacity) {
+        while (gradle.getParent() != null)
+            gradle = gradle.getParent();
+        if (current.get() == gradle)
+            return;
+        current = new WeakReference<>(gradle);
+
+        TraceRecorder.start(capacity);
+        gradle.buildFinished(result -> write(output));
+    }
+
+    private static void write(File output) {
+        TraceRecorder recorder = TraceRecorder.stop();
+        if (recorder == null)
+            return;
+        try {
+            recorder.writeChromeTrace(output);
+            LOGGER.lifecycle("Artifactural trace of " + recorder.getRecorded() + " spans written to " + output);
+        } catch (IOException e) {
+            LOGGER.warn("Failed to write Artifactural trace to " + output, e);
+        }
+    }
+
+}
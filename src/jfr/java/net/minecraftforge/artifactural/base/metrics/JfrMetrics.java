@@ -0,0 +1,189 @@
+/*
+ * Artifactural
+ * Copyright (c) 2018-2021.
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation version 2.1
+ * of the License.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+
+package net.minecraftforge.artifactural.base.metrics;
+
+import jdk.jfr.Category;
+import jdk.jfr.DataAmount;
+import jdk.jfr.Event;
+import jdk.jfr.EventType;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+
+/**
+ * Emits JFR events for every measurement. Each call first checks whether the event type
+ * is enabled in a running recording, so nothing is allocated when JFR is idle.
+ *
+ * Timed operations are begun by the {@link Metrics.Timer} started with them and ended when it's
+ * stopped, so an event's start time and duration are those of the operation it measured.
+ *
+ * Only ever instantiated reflectively from {@link Metrics}, this class must not be
+ * referenced directly so that JVMs without {@code jdk.jfr} can still load everything else.
+ * For the same reason it's built in its own source set, the only one that needs {@code jdk.jfr} to compile.
+ */
+class JfrMetrics implements MetricsCollector, TimedEvents {
+
+    private final EventType lookupType = EventType.getEventType(LookupEvent.class);
+    private final EventType cacheType = EventType.getEventType(CacheEvent.class);
+    private final EventType bytesType = EventType.getEventType(CacheWriteEvent.class);
+    private final EventType providerType = EventType.getEventType(ProviderEvent.class);
+    private final EventType transformerType = EventType.getEventType(TransformerEvent.class);
+    private final EventType resolverType = EventType.getEventType(ResolverEvent.class);
+
+    @Override
+    public Object beginLookup() {
+        return lookupType.isEnabled() ? begin(new LookupEvent()) : null;
+    }
+
+    @Override
+    public void endLookup(Object started, LookupOutcome outcome) {
+        if (!(started instanceof LookupEvent)) return;
+        LookupEvent event = (LookupEvent)started;
+        event.outcome = outcome.name();
+        commit(event);
+    }
+
+    @Override
+    public Object beginProvider() {
+        return providerType.isEnabled() ? begin(new ProviderEvent()) : null;
+    }
+
+    @Override
+    public void endProvider(Object started, String provider, boolean hit) {
+        if (!(started instanceof ProviderEvent)) return;
+        ProviderEvent event = (ProviderEvent)started;
+        event.provider = provider;
+        event.hit = hit;
+        commit(event);
+    }
+
+    @Override
+    public Object beginTransformer() {
+        return transformerType.isEnabled() ? begin(new TransformerEvent()) : null;
+    }
+
+    @Override
+    public void endTransformer(Object started, String transformer) {
+        if (!(started instanceof TransformerEvent)) return;
+        TransformerEvent event = (TransformerEvent)started;
+        event.transformer = transformer;
+        commit(event);
+    }
+
+    @Override
+    public Object beginResolver() {
+        return resolverType.isEnabled() ? begin(new ResolverEvent()) : null;
+    }
+
+    @Override
+    public void endResolver(Object started, String dependency, boolean waited) {
+        if (!(started instanceof ResolverEvent)) return;
+        ResolverEvent event = (ResolverEvent)started;
+        event.dependency = dependency;
+        event.waited = waited;
+        commit(event);
+    }
+
+    private static Event begin(Event event) {
+        event.begin();
+        return event;
+    }
+
+    private static void commit(Event event) {
+        event.end();
+        if (event.shouldCommit())
+            event.commit();
+    }
+
+    @Override
+    public void cacheHit() {
+        if (!cacheType.isEnabled()) return;
+        CacheEvent event = new CacheEvent();
+        event.hit = true;
+        event.commit();
+    }
+
+    @Override
+    public void cacheMiss() {
+        if (!cacheType.isEnabled()) return;
+        CacheEvent event = new CacheEvent();
+        event.hit = false;
+        event.commit();
+    }
+
+    @Override
+    public void bytesWritten(long bytes) {
+        if (!bytesType.isEnabled()) return;
+        CacheWriteEvent event = new CacheWriteEvent();
+        event.bytes = bytes;
+        event.commit();
+    }
+
+    @Name("net.minecraftforge.artifactural.Lookup")
+    @Label("Repository Lookup")
+    @Category("Artifactural")
+    @StackTrace(false)
+    static class LookupEvent extends Event {
+        @Label("Outcome") String outcome;
+    }
+
+    @Name("net.minecraftforge.artifactural.Cache")
+    @Label("Cache Access")
+    @Category("Artifactural")
+    @StackTrace(false)
+    static class CacheEvent extends Event {
+        @Label("Hit") boolean hit;
+    }
+
+    @Name("net.minecraftforge.artifactural.CacheWrite")
+    @Label("Cache Write")
+    @Category("Artifactural")
+    @StackTrace(false)
+    static class CacheWriteEvent extends Event {
+        @Label("Bytes") @DataAmount long bytes;
+    }
+
+    @Name("net.minecraftforge.artifactural.Provider")
+    @Label("Provider Lookup")
+    @Category("Artifactural")
+    @StackTrace(false)
+    static class ProviderEvent extends Event {
+        @Label("Provider") String provider;
+        @Label("Hit") boolean hit;
+    }
+
+    @Name("net.minecraftforge.artifactural.Transformer")
+    @Label("Transformer")
+    @Category("Artifactural")
+    @StackTrace(false)
+    static class TransformerEvent extends Event {
+        @Label("Transformer") String transformer;
+    }
+
+    @Name("net.minecraftforge.artifactural.DependencyResolver")
+    @Label("Dependency Resolution")
+    @Category("Artifactural")
+    @StackTrace(false)
+    static class ResolverEvent extends Event {
+        @Label("Dependency") String dependency;
+        @Label("Waited On Another Thread") boolean waited;
+    }
+
+}
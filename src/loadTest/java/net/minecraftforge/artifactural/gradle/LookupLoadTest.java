@@ -0,0 +1,481 @@
+/*
+ * Artifactural
+ * Copyright (c) 2018-2021.
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation version 2.1
+ * of the License.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+
+package net.minecraftforge.artifactural.gradle;
+
+import net.minecraftforge.artifactural.api.artifact.Artifact;
+import net.minecraftforge.artifactural.api.artifact.ArtifactIdentifier;
+import net.minecraftforge.artifactural.api.artifact.ArtifactMetadata;
+import net.minecraftforge.artifactural.api.artifact.ArtifactType;
+import net.minecraftforge.artifactural.api.repository.Repository;
+import net.minecraftforge.artifactural.base.artifact.ArtifactBase;
+import net.minecraftforge.artifactural.base.artifact.SimpleArtifactIdentifier;
+import net.minecraftforge.artifactural.base.artifact.SimpleArtifactMetadata;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadInfo;
+import java.lang.management.ThreadMXBean;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.SplittableRandom;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Load generator for the path lookups behind {@link GradleRepositoryAdapter}, driven the way many Gradle workers
+ * probe a repository at once, against a synthetic {@link Repository} so it needs neither Gradle nor a network.
+ *
+ * Options are given as {@code --name=value}:
+ * <ul>
+ * <li>{@code artifacts} Number of artifacts the repository provides, four versions per module (2000)</li>
+ * <li>{@code lookups} Total number of lookups, spread over every thread (50000)</li>
+ * <li>{@code threads} Number of threads looking up at once (16)</li>
+ * <li>{@code hit-ratio} Share of artifact lookups for artifacts that exist, the rest are for versions that don't (0.8)</li>
+ * <li>{@code metadata-ratio} Share of lookups for maven-metadata.xml files and directory listings (0.05)</li>
+ * <li>{@code read-ratio} Share of hits whose contents are read, the rest only check the artifact exists (1)</li>
+ * <li>{@code latency} Milliseconds the repository takes to generate an artifact (2)</li>
+ * <li>{@code lookup-latency} Milliseconds the repository takes to answer whether it has an artifact (0)</li>
+ * <li>{@code size} Size in bytes of each generated artifact (4096)</li>
+ * <li>{@code fingerprint} Repository fingerprint, so lookups go through the manifest, none if unset</li>
+ * <li>{@code seed} Seed of the lookup sequence of each thread (1)</li>
+ * <li>{@code root} Directory to generate into, a temporary directory that is deleted afterwards if unset</li>
+ * <li>{@code timeout} Seconds to wait for the run before dumping every thread and failing (300)</li>
+ * <li>{@code max-p99} Fail if the 99th percentile latency of all lookups exceeds this many milliseconds</li>
+ * <li>{@code min-throughput} Fail if fewer than this many lookups complete per second</li>
+ * </ul>
+ *
+ * The run always fails if an artifact is generated more than once, a lookup gives the wrong answer or throws, or the
+ * run times out, so it is cheap enough to run on every build to catch concurrency regressions. The thresholds are off
+ * by default, as they depend on the machine.
+ *
+ * Lock contention is taken from {@link ThreadMXBean}, time spent waiting on monitors and parked on locks by the lookup
+ * threads, less the time the repository spends sleeping to simulate its latency.
+ */
+public class LookupLoadTest {
+    private static final int VERSIONS = 4;
+    private static final String[] EXTENSIONS = { "jar", "pom", "jar.sha1" };
+    // Time each thread spent simulating repository latency, so it isn't reported as contention
+    private static final ThreadLocal<long[]> SLEPT = ThreadLocal.withInitial(() -> new long[2]);
+
+    private enum Kind { HIT, MISS, METADATA }
+
+    public static void main(String[] args) throws Exception {
+        Map<String, String> options = parse(args);
+        int artifacts = Integer.parseInt(options.getOrDefault("artifacts", "2000"));
+        int lookups = Integer.parseInt(options.getOrDefault("lookups", "50000"));
+        int threads = Integer.parseInt(options.getOrDefault("threads", "16"));
+        double hitRatio = Double.parseDouble(options.getOrDefault("hit-ratio", "0.8"));
+        double metadataRatio = Double.parseDouble(options.getOrDefault("metadata-ratio", "0.05"));
+        double readRatio = Double.parseDouble(options.getOrDefault("read-ratio", "1"));
+        long latency = Long.parseLong(options.getOrDefault("latency", "2"));
+        long lookupLatency = Long.parseLong(options.getOrDefault("lookup-latency", "0"));
+        int size = Integer.parseInt(options.getOrDefault("size", "4096"));
+        long seed = Long.parseLong(options.getOrDefault("seed", "1"));
+        long timeout = Long.parseLong(options.getOrDefault("timeout", "300"));
+        if (artifacts < VERSIONS || lookups <= 0 || threads <= 0)
+            throw new IllegalArgumentException("Need at least " + VERSIONS + " artifacts, one lookup and one thread");
+
+        Path dir = options.containsKey("root") ? Paths.get(options.get("root")) : Files.createTempDirectory("artifactural-loadtest");
+        Files.createDirectories(dir);
+        String root = dir.toAbsolutePath().toString().replace('\\', '/');
+        if (!root.endsWith("/")) root += '/';
+
+        SyntheticRepository repository = new SyntheticRepository(artifacts / VERSIONS, size, latency, lookupLatency, options.get("fingerprint"));
+        ArtifactLocator locator = new ArtifactLocator(repository, root);
+
+        System.out.println(String.format("Looking up %d paths on %d threads: %d artifacts, %.0f%% hits, %.0f%% of them read, %.0f%% metadata, %dms generation, %dms lookup latency",
+            lookups, threads, repository.modules * VERSIONS, hitRatio * 100, readRatio * 100, metadataRatio * 100, latency, lookupLatency));
+
+        ThreadMXBean mx = ManagementFactory.getThreadMXBean();
+        boolean contention = mx.isThreadContentionMonitoringSupported();
+        if (contention)
+            mx.setThreadContentionMonitoringEnabled(true);
+
+        AtomicInteger remaining = new AtomicInteger(lookups);
+        CountDownLatch start = new CountDownLatch(1);
+        CountDownLatch done = new CountDownLatch(threads);
+        List<Worker> workers = new ArrayList<>();
+        for (int x = 0; x < threads; x++) {
+            Worker worker = new Worker(locator, repository, root, new SplittableRandom(seed + x), remaining, hitRatio, metadataRatio, readRatio, size, contention, start, done);
+            workers.add(worker);
+            Thread thread = new Thread(worker, "Lookup " + x);
+            thread.setDaemon(true);
+            thread.start();
+        }
+
+        long began = System.nanoTime();
+        start.countDown();
+        boolean finished = done.await(timeout, TimeUnit.SECONDS);
+        long elapsed = System.nanoTime() - began;
+
+        List<String> failures = new ArrayList<>();
+        if (!finished) {
+            failures.add("Timed out after " + timeout + "s with " + remaining.get() + " lookups left");
+            long[] deadlocked = mx.findDeadlockedThreads();
+            if (deadlocked != null)
+                failures.add(deadlocked.length + " threads deadlocked");
+            for (ThreadInfo info : mx.dumpAllThreads(true, true))
+                System.out.print(info);
+        }
+
+        Map<Kind, long[]> latencies = new HashMap<>();
+        long completed = 0, blockedCount = 0, blockedTime = 0, waitedCount = 0, waitedTime = 0;
+        for (Worker worker : workers) {
+            for (Kind kind : Kind.values())
+                latencies.merge(kind, worker.getLatencies(kind), LookupLoadTest::concat);
+            completed += worker.completed;
+            blockedCount += worker.blockedCount;
+            blockedTime += worker.blockedTime;
+            waitedCount += worker.waitedCount;
+            waitedTime += worker.waitedTime;
+            failures.addAll(worker.failures);
+        }
+
+        double seconds = elapsed / 1e9;
+        double throughput = completed / seconds;
+        System.out.println(String.format("Throughput: %.0f lookups/s, %d lookups in %.2fs", throughput, completed, seconds));
+        long[] all = new long[0];
+        for (Kind kind : Kind.values()) {
+            long[] values = latencies.get(kind);
+            System.out.println(summarize(kind.name().toLowerCase(), values));
+            all = concat(all, values);
+        }
+        System.out.println(summarize("all", all));
+
+        int generated = repository.generations.size();
+        long duplicates = repository.generations.values().stream().filter(c -> c.get() > 1).count();
+        System.out.println("Repository: " + repository.lookups.get() + " lookups, " + generated + " files generated, " + duplicates + " of them more than once");
+        if (duplicates > 0)
+            failures.add(duplicates + " files were generated more than once");
+
+        if (contention) {
+            double workerTime = seconds * threads * 1000;
+            System.out.println(String.format("Contention: blocked on monitors %d times for %dms, waited on locks %d times for %dms, %.1f%% of thread time",
+                blockedCount, blockedTime, waitedCount, waitedTime, (blockedTime + waitedTime) * 100 / workerTime));
+        } else {
+            System.out.println("Contention: not supported by this JVM");
+        }
+
+        if (options.containsKey("max-p99")) {
+            double max = Double.parseDouble(options.get("max-p99"));
+            double p99 = percentile(all, 0.99) / 1e6;
+            if (p99 > max)
+                failures.add(String.format("p99 of %.2fms is over %.2fms", p99, max));
+        }
+        if (options.containsKey("min-throughput")) {
+            double min = Double.parseDouble(options.get("min-throughput"));
+            if (throughput < min)
+                failures.add(String.format("Throughput of %.0f lookups/s is under %.0f", throughput, min));
+        }
+
+        if (!options.containsKey("root") && finished)
+            delete(dir);
+
+        if (!failures.isEmpty()) {
+            failures.stream().limit(20).forEach(f -> System.out.println("FAILED: " + f));
+            if (failures.size() > 20)
+                System.out.println("FAILED: ... and " + (failures.size() - 20) + " more");
+            System.exit(1);
+        }
+    }
+
+    private static Map<String, String> parse(String[] args) {
+        Map<String, String> ret = new HashMap<>();
+        for (String arg : args) {
+            if (!arg.startsWith("--") || arg.indexOf('=') == -1)
+                throw new IllegalArgumentException("Expected --name=value: " + arg);
+            int idx = arg.indexOf('=');
+            ret.put(arg.substring(2, idx), arg.substring(idx + 1));
+        }
+        return ret;
+    }
+
+    private static long[] concat(long[] a, long[] b) {
+        long[] ret = Arrays.copyOf(a, a.length + b.length);
+        System.arraycopy(b, 0, ret, a.length, b.length);
+        return ret;
+    }
+
+    /**
+     * @param sorted Latencies in nanoseconds, sorted ascending
+     */
+    private static long percentile(long[] sorted, double percentile) {
+        if (sorted.length == 0)
+            return 0;
+        return sorted[Math.min(sorted.length - 1, (int)Math.ceil(sorted.length * percentile) - 1)];
+    }
+
+    private static String summarize(String name, long[] values) {
+        Arrays.sort(values);
+        return String.format("  %-8s count=%-8d p50=%.3fms p99=%.3fms p999=%.3fms max=%.3fms", name, values.length,
+            percentile(values, 0.5) / 1e6, percentile(values, 0.99) / 1e6, percentile(values, 0.999) / 1e6,
+            (values.length == 0 ? 0 : values[values.length - 1]) / 1e6);
+    }
+
+    private static void sleep(long millis) {
+        if (millis <= 0)
+            return;
+        long start = System.nanoTime();
+        try {
+            Thread.sleep(millis);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        long[] slept = SLEPT.get();
+        slept[0]++;
+        slept[1] += TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+    }
+
+    private static void delete(Path dir) throws IOException {
+        Files.walkFileTree(dir, new SimpleFileVisitor<Path>() {
+            @Override
+            public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) throws IOException {
+                Files.delete(file);
+                return FileVisitResult.CONTINUE;
+            }
+
+            @Override
+            public FileVisitResult postVisitDirectory(Path dir, IOException exc) throws IOException {
+                Files.delete(dir);
+                return FileVisitResult.CONTINUE;
+            }
+        });
+    }
+
+    private static class Worker implements Runnable {
+        private final ArtifactLocator locator;
+        private final SyntheticRepository repository;
+        private final String root;
+        private final SplittableRandom random;
+        private final AtomicInteger remaining;
+        private final double hitRatio;
+        private final double metadataRatio;
+        private final double readRatio;
+        private final int size;
+        private final boolean contention;
+        private final CountDownLatch start;
+        private final CountDownLatch done;
+        private final Map<Kind, long[]> latencies = new HashMap<>();
+        private final Map<Kind, Integer> counts = new HashMap<>();
+        private final List<String> failures = new ArrayList<>();
+        private volatile long completed, blockedCount, blockedTime, waitedCount, waitedTime;
+
+        private Worker(ArtifactLocator locator, SyntheticRepository repository, String root, SplittableRandom random, AtomicInteger remaining,
+                double hitRatio, double metadataRatio, double readRatio, int size, boolean contention, CountDownLatch start, CountDownLatch done) {
+            this.locator = locator;
+            this.repository = repository;
+            this.root = root;
+            this.random = random;
+            this.remaining = remaining;
+            this.hitRatio = hitRatio;
+            this.metadataRatio = metadataRatio;
+            this.readRatio = readRatio;
+            this.size = size;
+            this.contention = contention;
+            this.start = start;
+            this.done = done;
+        }
+
+        @Override
+        public void run() {
+            try {
+                start.await();
+                long count = 0;
+                while (remaining.getAndDecrement() > 0) {
+                    lookup();
+                    completed = ++count;
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            } finally {
+                if (contention) {
+                    ThreadInfo info = ManagementFactory.getThreadMXBean().getThreadInfo(Thread.currentThread().getId());
+                    long[] slept = SLEPT.get();
+                    blockedCount = info.getBlockedCount();
+                    blockedTime = info.getBlockedTime();
+                    waitedCount = Math.max(0, info.getWaitedCount() - slept[0]);
+                    waitedTime = Math.max(0, info.getWaitedTime() - slept[1]);
+                }
+                done.countDown();
+            }
+        }
+
+        private void lookup() {
+            int module = random.nextInt(repository.modules);
+            String base = root + "loadtest/group" + (module % 16) + "/lib" + module + '/';
+            Kind kind;
+            String path;
+            if (random.nextDouble() < metadataRatio) {
+                kind = Kind.METADATA;
+                path = random.nextBoolean() ? base + "maven-metadata.xml" : base;
+            } else {
+                boolean hit = random.nextDouble() < hitRatio;
+                kind = hit ? Kind.HIT : Kind.MISS;
+                String version = (hit ? "1." : "0.") + random.nextInt(VERSIONS);
+                path = base + version + "/lib" + module + '-' + version + '.' + EXTENSIONS[random.nextInt(EXTENSIONS.length)];
+            }
+
+            // Artifacts are only generated once read, like Gradle does when it downloads them
+            boolean read = kind == Kind.HIT && random.nextDouble() < readRatio;
+            long begin = System.nanoTime();
+            ArtifactLocator.Location location;
+            File file;
+            try {
+                location = locator.find(path);
+                file = read ? location.materialize() : location.getFile();
+            } catch (RuntimeException e) {
+                failures.add(path + ": " + e);
+                return;
+            } finally {
+                record(kind, System.nanoTime() - begin);
+            }
+
+            switch (kind) {
+                case HIT:
+                    if (read ? file.length() != size : !location.isDeferred() && file.length() != size)
+                        failures.add(path + ": expected " + size + " bytes in " + file + ", found " + file.length());
+                    break;
+                case MISS:
+                    if (file.exists())
+                        failures.add(path + ": found " + file + " for a missing artifact");
+                    break;
+                case METADATA:
+                    if (path.endsWith("/") ? location.getListing() == null || location.getListing().size() != VERSIONS : !file.isFile())
+                        failures.add(path + ": expected " + VERSIONS + " versions, got " + (path.endsWith("/") ? location.getListing() : file));
+                    break;
+            }
+        }
+
+        private void record(Kind kind, long nanos) {
+            long[] values = latencies.computeIfAbsent(kind, k -> new long[1024]);
+            int count = counts.getOrDefault(kind, 0);
+            if (count == values.length)
+                latencies.put(kind, values = Arrays.copyOf(values, count * 2));
+            values[count] = nanos;
+            counts.put(kind, count + 1);
+        }
+
+        private long[] getLatencies(Kind kind) {
+            long[] values = latencies.get(kind);
+            return values == null ? new long[0] : Arrays.copyOf(values, counts.get(kind));
+        }
+    }
+
+    /**
+     * Provides {@code modules} modules of {@value #VERSIONS} versions each, named {@code loadtest.group[module % 16]:lib[module]:1.[version]}.
+     */
+    private static class SyntheticRepository implements Repository {
+        private final int modules;
+        private final byte[] content;
+        private final long latency;
+        private final long lookupLatency;
+        private final String fingerprint;
+        private final Map<String, AtomicInteger> generations = new ConcurrentHashMap<>();
+        private final AtomicLong lookups = new AtomicLong();
+
+        private SyntheticRepository(int modules, int size, long latency, long lookupLatency, String fingerprint) {
+            this.modules = modules;
+            this.content = new byte[size];
+            new Random(size).nextBytes(content);
+            this.latency = latency;
+            this.lookupLatency = lookupLatency;
+            this.fingerprint = fingerprint;
+        }
+
+        private int getModule(String group, String name) {
+            if (!group.startsWith("loadtest.group") || !name.startsWith("lib"))
+                return -1;
+            try {
+                int module = Integer.parseInt(name.substring(3));
+                return module < modules && group.equals("loadtest.group" + (module % 16)) ? module : -1;
+            } catch (NumberFormatException e) {
+                return -1;
+            }
+        }
+
+        @Override
+        public Artifact getArtifact(ArtifactIdentifier identifier) {
+            lookups.incrementAndGet();
+            sleep(lookupLatency);
+            if (getModule(identifier.getGroup(), identifier.getName()) == -1 || !getVersions(identifier.getGroup(), identifier.getName()).contains(identifier.getVersion()))
+                return Artifact.none();
+            // Real providers return their own identifiers, which always have a classifier
+            return new SyntheticArtifact(new SimpleArtifactIdentifier(identifier.getGroup(), identifier.getName(), identifier.getVersion(),
+                identifier.getClassifier() == null ? "" : identifier.getClassifier(), identifier.getExtension()), new SimpleArtifactMetadata());
+        }
+
+        @Override
+        public Collection<String> getVersions(String group, String name) {
+            if (getModule(group, name) == -1)
+                return Collections.emptyList();
+            List<String> ret = new ArrayList<>();
+            for (int x = 0; x < VERSIONS; x++)
+                ret.add("1." + x);
+            return ret;
+        }
+
+        @Override
+        public String getFingerprint() {
+            return fingerprint;
+        }
+
+        private class SyntheticArtifact extends ArtifactBase {
+            private SyntheticArtifact(ArtifactIdentifier identifier, ArtifactMetadata metadata) {
+                super(identifier, ArtifactType.BINARY, metadata);
+            }
+
+            @Override
+            public Artifact withMetadata(ArtifactMetadata metadata) {
+                return new SyntheticArtifact(getIdentifier(), metadata);
+            }
+
+            @Override
+            public boolean isPresent() {
+                return true;
+            }
+
+            @Override
+            public InputStream openStream() {
+                ArtifactIdentifier id = getIdentifier();
+                generations.computeIfAbsent(id.getGroup() + ':' + id.getName() + ':' + id.getVersion() + '@' + id.getExtension(), k -> new AtomicInteger()).incrementAndGet();
+                sleep(latency);
+                return new ByteArrayInputStream(content);
+            }
+        }
+    }
+}
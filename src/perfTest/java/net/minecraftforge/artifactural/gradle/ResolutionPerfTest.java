@@ -0,0 +1,399 @@
+/*
+ * Artifactural
+ * Copyright (c) 2018-2021.
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation version 2.1
+ * of the License.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+
+package net.minecraftforge.artifactural.gradle;
+
+import org.gradle.testkit.runner.BuildResult;
+import org.gradle.testkit.runner.GradleRunner;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.TreeMap;
+
+/**
+ * End to end resolution timings of {@link GradleRepositoryAdapter#add} inside real builds, run through Gradle TestKit.
+ *
+ * Generates a multi-project build whose projects all resolve artifacts from one Artifactural repository, backed by a
+ * synthetic repository in the build script, and times it in three states:
+ * <ul>
+ * <li>cold: empty Artifactural cache, fresh Gradle user home and daemon</li>
+ * <li>warm: populated cache, fresh Gradle user home and daemon</li>
+ * <li>warm-daemon: populated cache, the daemon of the warm run</li>
+ * </ul>
+ * The time measured is from the first project starting resolution to the last one finishing, as reported by the build,
+ * the whole build is reported alongside it but includes daemon startup and configuration. Every run also checks the
+ * files Gradle resolved were generated in full, as artifacts are only generated once Gradle reads them.
+ *
+ * Options are given as {@code --name=value}:
+ * <ul>
+ * <li>{@code gradle} Comma separated Gradle installation directories to run against, required. Cover both sides of 4.10,
+ * where the adapter switches constructors, as well as the versions in use.</li>
+ * <li>{@code classpath} Classpath of Artifactural and its dependencies for the generated builds, required</li>
+ * <li>{@code artifacts} Number of artifacts, spread over the projects with the first tenth shared by all of them (200)</li>
+ * <li>{@code projects} Number of projects, resolved in parallel (4)</li>
+ * <li>{@code size} Size in bytes of each generated jar (4096)</li>
+ * <li>{@code iterations} Times each state is measured, the median is kept (3)</li>
+ * <li>{@code fingerprint} Repository fingerprint, so warm builds go through the manifest, none if unset</li>
+ * <li>{@code java-home} JDK the builds run on, for Gradle versions that can't run on the current one</li>
+ * <li>{@code baseline} Properties file of previous timings to compare against, written if it doesn't exist</li>
+ * <li>{@code update-baseline} Overwrite the baseline with these timings instead of comparing (false)</li>
+ * <li>{@code threshold} Fraction a timing may exceed its baseline by before failing (0.25)</li>
+ * <li>{@code slack} Milliseconds a timing may exceed its baseline by regardless of the threshold, as small timings are noisy (50)</li>
+ * <li>{@code dir} Directory to generate the builds in, cleared first, a new temporary directory if unset. It is left
+ * in place afterwards, as the TestKit daemons keep writing to it until they stop.</li>
+ * </ul>
+ *
+ * Builds run with {@code --offline} against the given installations, nothing is downloaded. Baselines depend on the
+ * machine, so each machine keeps its own.
+ */
+public class ResolutionPerfTest {
+    private static final String[] STATES = { "cold", "warm", "warm-daemon" };
+    private static final String GRADLE_MARKER = "PERF-GRADLE ";
+    private static final String RESOLVE_MARKER = "PERF-RESOLVE ";
+
+    public static void main(String[] args) throws Exception {
+        Map<String, String> options = parse(args);
+        if (!options.containsKey("gradle") || !options.containsKey("classpath"))
+            throw new IllegalArgumentException("--gradle and --classpath are required");
+        int artifacts = Integer.parseInt(options.getOrDefault("artifacts", "200"));
+        int projects = Integer.parseInt(options.getOrDefault("projects", "4"));
+        int size = Integer.parseInt(options.getOrDefault("size", "4096"));
+        int iterations = Integer.parseInt(options.getOrDefault("iterations", "3"));
+        double threshold = Double.parseDouble(options.getOrDefault("threshold", "0.25"));
+        long slack = Long.parseLong(options.getOrDefault("slack", "50"));
+        if (artifacts < projects || projects <= 0 || iterations <= 0)
+            throw new IllegalArgumentException("Need at least one project, one iteration and an artifact per project");
+
+        Path dir = options.containsKey("dir") ? Paths.get(options.get("dir")) : Files.createTempDirectory("artifactural-perftest");
+        try {
+            delete(dir);
+        } catch (IOException e) {
+            // Daemons of an earlier run may still be writing to their TestKit directories, which are never reused
+        }
+        Path project = dir.resolve("build");
+        int expected = generate(project, artifacts, projects, size, options.get("classpath").split(File.pathSeparator), options.get("java-home"));
+        System.out.println(String.format("Resolving %d artifacts over %d projects, %d per project", artifacts, projects, expected));
+
+        List<String> arguments = new ArrayList<>(Arrays.asList("resolvePerf", "--offline", "--stacktrace"));
+        if (options.containsKey("fingerprint"))
+            arguments.add("-Pperf.fingerprint=" + options.get("fingerprint"));
+
+        // Medians keyed by [gradle version].[state], in milliseconds
+        Map<String, Long> results = new TreeMap<>();
+        List<String> failures = new ArrayList<>();
+        for (String installation : options.get("gradle").split(",")) {
+            File home = new File(installation.trim());
+            if (!new File(home, "lib").isDirectory())
+                throw new IllegalArgumentException("Not a Gradle installation: " + home);
+
+            Map<String, long[]> resolve = new HashMap<>();
+            Map<String, long[]> build = new HashMap<>();
+            for (String state : STATES) {
+                resolve.put(state, new long[iterations]);
+                build.put(state, new long[iterations]);
+            }
+            String version = null;
+            for (int x = 0; x < iterations; x++) {
+                delete(project.resolve("artifactural"));
+                // A new TestKit directory is a new Gradle user home, and so a new daemon
+                File kit = Files.createTempDirectory(dir, "testkit").toFile();
+                Run cold = run(home, project, kit, arguments, projects, expected);
+                File warmKit = Files.createTempDirectory(dir, "testkit").toFile();
+                Run warm = run(home, project, warmKit, arguments, projects, expected);
+                Run daemon = run(home, project, warmKit, arguments, projects, expected);
+
+                Run[] runs = { cold, warm, daemon };
+                for (int y = 0; y < STATES.length; y++) {
+                    resolve.get(STATES[y])[x] = runs[y].resolve;
+                    build.get(STATES[y])[x] = runs[y].build;
+                    if (runs[y].failure != null)
+                        failures.add("Gradle " + runs[y].version + " " + STATES[y] + ": " + runs[y].failure);
+                }
+                version = cold.version;
+            }
+
+            StringBuilder line = new StringBuilder("Gradle ").append(version).append(':');
+            for (String state : STATES) {
+                long median = median(resolve.get(state));
+                results.put(version + '.' + state, median);
+                line.append(String.format(" %s %dms (build %dms)", state, median, median(build.get(state))));
+            }
+            System.out.println(line);
+        }
+
+        if (options.containsKey("baseline"))
+            compare(Paths.get(options.get("baseline")), results, Boolean.parseBoolean(options.getOrDefault("update-baseline", "false")), threshold, slack, failures);
+
+        if (!failures.isEmpty()) {
+            failures.forEach(f -> System.out.println("FAILED: " + f));
+            System.exit(1);
+        }
+    }
+
+    private static Map<String, String> parse(String[] args) {
+        Map<String, String> ret = new HashMap<>();
+        for (String arg : args) {
+            if (!arg.startsWith("--") || arg.indexOf('=') == -1)
+                throw new IllegalArgumentException("Expected --name=value: " + arg);
+            int idx = arg.indexOf('=');
+            ret.put(arg.substring(2, idx), arg.substring(idx + 1));
+        }
+        return ret;
+    }
+
+    private static long median(long[] values) {
+        long[] sorted = values.clone();
+        Arrays.sort(sorted);
+        return sorted[sorted.length / 2];
+    }
+
+    private static void compare(Path file, Map<String, Long> results, boolean update, double threshold, long slack, List<String> failures) throws IOException {
+        Properties baseline = new Properties();
+        if (Files.exists(file) && !update) {
+            try (InputStream in = Files.newInputStream(file)) {
+                baseline.load(in);
+            }
+            for (Map.Entry<String, Long> result : results.entrySet()) {
+                String previous = baseline.getProperty(result.getKey());
+                if (previous == null) {
+                    System.out.println("No baseline for " + result.getKey() + ", recording " + result.getValue() + "ms");
+                    continue;
+                }
+                long limit = (long)(Long.parseLong(previous) * (1 + threshold)) + slack;
+                if (result.getValue() > limit)
+                    failures.add(String.format("%s took %dms, baseline %sms allows at most %dms", result.getKey(), result.getValue(), previous, limit));
+            }
+            // Only new entries are added, so a slow run doesn't raise the bar for the next one
+            results.forEach((k, v) -> baseline.putIfAbsent(k, Long.toString(v)));
+        } else {
+            results.forEach((k, v) -> baseline.setProperty(k, Long.toString(v)));
+            System.out.println("Writing baseline to " + file);
+        }
+        if (file.getParent() != null)
+            Files.createDirectories(file.getParent());
+        try (OutputStream out = Files.newOutputStream(file)) {
+            baseline.store(out, "Artifactural resolution timings in milliseconds, by [gradle version].[state]");
+        }
+    }
+
+    private static Run run(File home, Path project, File kit, List<String> arguments, int projects, int expected) {
+        GradleRunner runner = GradleRunner.create()
+            .withGradleInstallation(home)
+            .withTestKitDir(kit)
+            .withProjectDir(project.toFile())
+            .withArguments(arguments);
+        long start = System.nanoTime();
+        BuildResult result = runner.build();
+        long build = (System.nanoTime() - start) / 1_000_000;
+
+        Run ret = new Run(build);
+        long first = Long.MAX_VALUE, last = Long.MIN_VALUE;
+        int reported = 0;
+        for (String line : result.getOutput().split("\\r?\\n")) {
+            if (line.startsWith(GRADLE_MARKER)) {
+                ret.version = line.substring(GRADLE_MARKER.length()).trim();
+            } else if (line.startsWith(RESOLVE_MARKER)) {
+                // [project] [artifacts] [start nanos] [end nanos] [broken artifacts], all from the same daemon so comparable
+                String[] parts = line.substring(RESOLVE_MARKER.length()).trim().split(" ");
+                if (Integer.parseInt(parts[1]) != expected)
+                    ret.failure = parts[0] + " resolved " + parts[1] + " artifacts instead of " + expected;
+                else if (Integer.parseInt(parts[4]) != 0)
+                    ret.failure = parts[0] + " resolved " + parts[4] + " artifacts to files that are missing or incomplete";
+                first = Math.min(first, Long.parseLong(parts[2]));
+                last = Math.max(last, Long.parseLong(parts[3]));
+                reported++;
+            }
+        }
+        if (reported != projects)
+            ret.failure = reported + " of " + projects + " projects reported resolution times";
+        ret.resolve = reported == 0 ? 0 : (last - first) / 1_000_000;
+        return ret;
+    }
+
+    /**
+     * Writes the build, every project depending on its own share of the artifacts plus the first tenth, which they all share.
+     *
+     * @return Number of artifacts each project resolves
+     */
+    private static int generate(Path dir, int artifacts, int projects, int size, String[] classpath, String javaHome) throws IOException {
+        Files.createDirectories(dir);
+        int shared = Math.max(1, artifacts / 10);
+        int own = (artifacts - shared) / projects;
+
+        StringBuilder settings = new StringBuilder("rootProject.name = 'perf'\n");
+        for (int x = 0; x < projects; x++) {
+            settings.append("include 'p").append(x).append("'\n");
+            StringBuilder deps = new StringBuilder("dependencies {\n");
+            for (int y = 0; y < shared; y++)
+                deps.append("    perf 'perf.group").append(y % 16).append(":lib").append(y).append(":1.0'\n");
+            for (int y = 0; y < own; y++) {
+                int module = shared + x * own + y;
+                deps.append("    perf 'perf.group").append(module % 16).append(":lib").append(module).append(":1.0'\n");
+            }
+            deps.append("}\n");
+            Path sub = dir.resolve("p" + x);
+            Files.createDirectories(sub);
+            write(sub.resolve("build.gradle"), deps.toString());
+        }
+        write(dir.resolve("settings.gradle"), settings.toString());
+
+        StringBuilder files = new StringBuilder();
+        for (String entry : classpath) {
+            if (entry.isEmpty())
+                continue;
+            if (files.length() > 0)
+                files.append(", ");
+            files.append('\'').append(entry.replace("\\", "\\\\").replace("'", "\\'")).append('\'');
+        }
+        write(dir.resolve("build.gradle"), String.join("\n",
+            "import net.minecraftforge.artifactural.api.artifact.*",
+            "import net.minecraftforge.artifactural.api.repository.Repository",
+            "import net.minecraftforge.artifactural.base.artifact.SimpleArtifactIdentifier",
+            "import net.minecraftforge.artifactural.base.artifact.StreamableArtifact",
+            "import net.minecraftforge.artifactural.gradle.GradleRepositoryAdapter",
+            "",
+            "buildscript {",
+            "    dependencies {",
+            "        classpath files(" + files + ")",
+            "    }",
+            "}",
+            "",
+            "class SyntheticRepository implements Repository {",
+            "    final int modules",
+            "    final byte[] jar",
+            "    final String fingerprint",
+            "",
+            "    SyntheticRepository(int modules, int size, String fingerprint) {",
+            "        this.modules = modules",
+            "        this.jar = new byte[size]",
+            "        new Random(size).nextBytes(jar)",
+            "        this.fingerprint = fingerprint",
+            "    }",
+            "",
+            "    boolean has(String group, String name) {",
+            "        if (!name.startsWith('lib') || !name.substring(3).isInteger()) return false",
+            "        int module = name.substring(3).toInteger()",
+            "        return module < modules && group == 'perf.group' + (module % 16)",
+            "    }",
+            "",
+            "    Artifact getArtifact(ArtifactIdentifier id) {",
+            "        if (!has(id.group, id.name) || id.version != '1.0' || !(id.extension in ['jar', 'pom']))",
+            "            return Artifact.none()",
+            "        def ret = new SimpleArtifactIdentifier(id.group, id.name, id.version, id.classifier ?: '', id.extension)",
+            "        if (id.extension == 'jar')",
+            "            return StreamableArtifact.ofBytes(ret, ArtifactType.BINARY, jar)",
+            "        String pom = \"\"\"<?xml version=\"1.0\" encoding=\"UTF-8\"?>",
+            "<project xmlns=\"http://maven.apache.org/POM/4.0.0\">",
+            "  <modelVersion>4.0.0</modelVersion>",
+            "  <groupId>${id.group}</groupId>",
+            "  <artifactId>${id.name}</artifactId>",
+            "  <version>${id.version}</version>",
+            "</project>",
+            "\"\"\"",
+            "        return StreamableArtifact.ofBytes(ret, ArtifactType.OTHER, pom.getBytes('UTF-8'))",
+            "    }",
+            "",
+            "    Collection<String> getVersions(String group, String name) {",
+            "        return has(group, name) ? ['1.0'] : []",
+            "    }",
+            "",
+            "    String getFingerprint() {",
+            "        return fingerprint",
+            "    }",
+            "}",
+            "",
+            "println '" + GRADLE_MARKER + "' + gradle.gradleVersion",
+            "def repository = new SyntheticRepository(" + artifacts + ", " + size + ", findProperty('perf.fingerprint'))",
+            "",
+            "subprojects {",
+            "    GradleRepositoryAdapter.add(repositories, 'synthetic', rootProject.file('artifactural'), repository)",
+            "    configurations {",
+            "        perf",
+            "    }",
+            "    task resolvePerf {",
+            "        doLast {",
+            "            long start = System.nanoTime()",
+            "            def artifacts = configurations.perf.resolvedConfiguration.resolvedArtifacts",
+            "            long end = System.nanoTime()",
+            "            // Outside the timing, the jars Gradle handed out must have been generated in full",
+            "            int broken = artifacts.count { !it.file.isFile() || it.file.length() != repository.jar.length }",
+            "            println \"" + RESOLVE_MARKER + "${project.path} ${artifacts.size()} ${start} ${end} ${broken}\"",
+            "        }",
+            "    }",
+            "}",
+            ""));
+
+        StringBuilder properties = new StringBuilder();
+        properties.append("org.gradle.parallel=true\n");
+        // TestKit leaves its daemons running, don't keep a cold one around for long
+        properties.append("org.gradle.daemon.idletimeout=60000\n");
+        if (javaHome != null)
+            properties.append("org.gradle.java.home=").append(javaHome.replace("\\", "\\\\")).append('\n');
+        write(dir.resolve("gradle.properties"), properties.toString());
+        return shared + own;
+    }
+
+    private static void write(Path file, String content) throws IOException {
+        Files.write(file, content.getBytes(StandardCharsets.UTF_8));
+    }
+
+    private static void delete(Path dir) throws IOException {
+        if (!Files.exists(dir))
+            return;
+        Files.walkFileTree(dir, new SimpleFileVisitor<Path>() {
+            @Override
+            public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) throws IOException {
+                Files.delete(file);
+                return FileVisitResult.CONTINUE;
+            }
+
+            @Override
+            public FileVisitResult postVisitDirectory(Path dir, IOException exc) throws IOException {
+                Files.delete(dir);
+                return FileVisitResult.CONTINUE;
+            }
+        });
+    }
+
+    private static class Run {
+        private final long build;
+        private long resolve;
+        private String version;
+        private String failure;
+
+        private Run(long build) {
+            this.build = build;
+        }
+    }
+}
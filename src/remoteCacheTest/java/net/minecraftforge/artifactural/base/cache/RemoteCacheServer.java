@@ -0,0 +1,217 @@
+/*
+ * Artifactural
+ * Copyright (c) 2018-2021.
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation version 2.1
+ * of the License.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+
+package net.minecraftforge.artifactural.base.cache;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import net.minecraftforge.artifactural.base.util.HashFunction;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.URI;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.concurrent.Executors;
+
+/**
+ * Minimal content store for {@link RemoteArtifactCache}, for {@link RemoteCacheTest} and trying the cache out without any
+ * infrastructure. Stores files below a directory, and supports GET, HEAD and PUT with the conditional requests and digests
+ * the cache uses. Entries are immutable once uploaded.
+ *
+ * Can be run on its own: {@code java ...RemoteCacheServer <directory> <port>}
+ */
+public class RemoteCacheServer implements AutoCloseable {
+    private static final HashFunction DIGEST = HashFunction.SHA256;
+
+    public static void main(String[] args) throws IOException {
+        if (args.length != 2) {
+            System.out.println("Usage: RemoteCacheServer <directory> <port>");
+            return;
+        }
+        RemoteCacheServer server = new RemoteCacheServer(new File(args[0]), Integer.parseInt(args[1]));
+        System.out.println("Serving " + args[0] + " at " + server.getUri());
+    }
+
+    private final File root;
+    private final HttpServer server;
+    private volatile boolean sendDigest = true;
+
+    /**
+     * Starts serving {@code root}.
+     *
+     * @param port Port to listen on, 0 to pick a free one
+     */
+    public RemoteCacheServer(File root, int port) throws IOException {
+        this.root = root.getAbsoluteFile();
+        this.server = HttpServer.create(new InetSocketAddress("localhost", port), 0);
+        this.server.createContext("/", this::handle);
+        this.server.setExecutor(Executors.newCachedThreadPool(r -> {
+            Thread thread = new Thread(r, "Artifactural Remote Cache Server");
+            thread.setDaemon(true);
+            return thread;
+        }));
+        this.server.start();
+    }
+
+    /**
+     * Whether downloads report their digest, stores that don't are trusted as they are.
+     */
+    public RemoteCacheServer setSendDigest(boolean sendDigest) {
+        this.sendDigest = sendDigest;
+        return this;
+    }
+
+    public URI getUri() {
+        return URI.create("http://localhost:" + server.getAddress().getPort() + "/");
+    }
+
+    @Override
+    public void close() {
+        server.stop(0);
+    }
+
+    private void handle(HttpExchange exchange) throws IOException {
+        try {
+            File file = resolve(exchange.getRequestURI().getPath());
+            switch (exchange.getRequestMethod()) {
+                case "GET":
+                case "HEAD":
+                    get(exchange, file);
+                    break;
+                case "PUT":
+                    put(exchange, file);
+                    break;
+                default:
+                    respond(exchange, 405, "Method not allowed");
+            }
+        } finally {
+            exchange.close();
+        }
+    }
+
+    private File resolve(String path) {
+        File file = new File(root, path).getAbsoluteFile();
+        try {
+            // No escaping the root with ..
+            return file.getCanonicalPath().startsWith(root.getCanonicalPath() + File.separator) ? file : null;
+        } catch (IOException e) {
+            return null;
+        }
+    }
+
+    private void get(HttpExchange exchange, File file) throws IOException {
+        if (file == null || !file.isFile()) {
+            respond(exchange, 404, "Not found");
+            return;
+        }
+        String digest = digest(file);
+        String etag = '"' + digest + '"';
+        exchange.getResponseHeaders().set("ETag", etag);
+        if (sendDigest)
+            exchange.getResponseHeaders().set(RemoteArtifactCache.DIGEST_HEADER, digest);
+        if (etag.equals(exchange.getRequestHeaders().getFirst("If-None-Match"))) {
+            exchange.sendResponseHeaders(304, -1);
+            return;
+        }
+        if ("HEAD".equals(exchange.getRequestMethod())) {
+            exchange.sendResponseHeaders(200, -1);
+            return;
+        }
+        exchange.sendResponseHeaders(200, file.length());
+        try (InputStream in = new FileInputStream(file);
+             OutputStream out = exchange.getResponseBody()) {
+            copy(in, out);
+        }
+    }
+
+    private void put(HttpExchange exchange, File file) throws IOException {
+        if (file == null) {
+            respond(exchange, 400, "Bad path");
+            return;
+        }
+        if (file.exists() && "*".equals(exchange.getRequestHeaders().getFirst("If-None-Match"))) {
+            respond(exchange, 412, "Already exists");
+            return;
+        }
+        file.getParentFile().mkdirs();
+        File tmp = File.createTempFile(file.getName(), ".tmp", file.getParentFile());
+        try {
+            HashFunction.Instance hash = DIGEST.create();
+            try (InputStream in = exchange.getRequestBody();
+                 OutputStream out = new FileOutputStream(tmp)) {
+                byte[] buf = new byte[8192];
+                int read;
+                while ((read = in.read(buf)) != -1) {
+                    out.write(buf, 0, read);
+                    hash.update(buf, 0, read);
+                }
+            }
+            String actual = hash.finish();
+            String expected = exchange.getRequestHeaders().getFirst(RemoteArtifactCache.DIGEST_HEADER);
+            if (expected != null && !expected.equalsIgnoreCase(actual)) {
+                respond(exchange, 400, "Digest mismatch");
+                return;
+            }
+            Files.write(getDigestFile(file).toPath(), actual.getBytes(StandardCharsets.UTF_8));
+            Files.move(tmp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            respond(exchange, 201, "Created");
+        } finally {
+            tmp.delete();
+        }
+    }
+
+    private static File getDigestFile(File file) {
+        return new File(file.getParentFile(), '.' + file.getName() + '.' + DIGEST.getExtension());
+    }
+
+    private static String digest(File file) throws IOException {
+        File digest = getDigestFile(file);
+        if (digest.exists() && digest.lastModified() >= file.lastModified())
+            return new String(Files.readAllBytes(digest.toPath()), StandardCharsets.UTF_8).trim();
+        return DIGEST.hash(file);
+    }
+
+    private static void respond(HttpExchange exchange, int code, String message) throws IOException {
+        byte[] data = message.getBytes(StandardCharsets.UTF_8);
+        exchange.sendResponseHeaders(code, data.length);
+        try (OutputStream out = exchange.getResponseBody()) {
+            out.write(data);
+        }
+    }
+
+    private static void copy(InputStream in, OutputStream out) throws IOException {
+        byte[] buf = new byte[8192];
+        int read;
+        while ((read = in.read(buf)) != -1)
+            out.write(buf, 0, read);
+    }
+
+    @Override
+    public String toString() {
+        return "RemoteCacheServer(" + root + ", " + getUri() + ")";
+    }
+
+}
@@ -0,0 +1,162 @@
+/*
+ * Artifactural
+ * Copyright (c) 2018-2021.
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation version 2.1
+ * of the License.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+
+package net.minecraftforge.artifactural.base.cache;
+
+import net.minecraftforge.artifactural.api.artifact.Artifact;
+import net.minecraftforge.artifactural.api.artifact.ArtifactType;
+import net.minecraftforge.artifactural.base.artifact.SimpleArtifactIdentifier;
+import net.minecraftforge.artifactural.base.artifact.StreamableArtifact;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.nio.file.attribute.FileTime;
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Runs {@link RemoteArtifactCache} against a {@link RemoteCacheServer} on localhost, so it needs no network, and fails
+ * with an exception on the first thing that doesn't behave:
+ * <ul>
+ * <li>An artifact the store doesn't have is generated, and uploaded for the next machine</li>
+ * <li>An artifact the store has is downloaded instead of generated</li>
+ * <li>A download that doesn't match the digest the store reports is thrown away, and the artifact generated</li>
+ * <li>A download from a store that doesn't report digests is used as is</li>
+ * <li>Every artifact is still generated when the store is down</li>
+ * </ul>
+ */
+public class RemoteCacheTest {
+    private static final AtomicInteger GENERATED = new AtomicInteger();
+
+    public static void main(String[] args) throws Exception {
+        Path dir = Files.createTempDirectory("artifactural-remotetest");
+        try {
+            run(dir);
+        } finally {
+            delete(dir);
+        }
+        System.out.println("Remote cache behaves");
+    }
+
+    private static void run(Path dir) throws Exception {
+        File store = dir.resolve("store").toFile();
+        try (RemoteCacheServer server = new RemoteCacheServer(store, 0)) {
+            Artifact first = artifact("first");
+            RemoteArtifactCache machine1 = cache(server, dir.resolve("machine1"));
+            expect("Generated on a miss", read(machine1, first), 1);
+            Path uploaded = store.toPath().resolve(LocatedArtifactCache.getRelativePath(first));
+            for (int x = 0; x < 100 && !Files.isRegularFile(uploaded); x++)
+                Thread.sleep(50);
+            check(Files.isRegularFile(uploaded), "Never uploaded to " + uploaded);
+
+            expect("Downloaded from the store", read(cache(server, dir.resolve("machine2")), first), 0);
+
+            // Damaged on the store after its digest was recorded, so the store reports the digest of the original
+            FileTime time = Files.getLastModifiedTime(uploaded);
+            Files.write(uploaded, "damaged".getBytes(StandardCharsets.UTF_8));
+            Files.setLastModifiedTime(uploaded, FileTime.fromMillis(time.toMillis() - 1000));
+            expect("Generated when the download is damaged", read(cache(server, dir.resolve("machine3")), first), 1);
+
+            Artifact second = artifact("second");
+            expect("Generated on a miss", read(machine1, second), 1);
+            Path uploadedSecond = store.toPath().resolve(LocatedArtifactCache.getRelativePath(second));
+            for (int x = 0; x < 100 && !Files.isRegularFile(uploadedSecond); x++)
+                Thread.sleep(50);
+            check(Files.isRegularFile(uploadedSecond), "Never uploaded to " + uploadedSecond);
+            server.setSendDigest(false);
+            expect("Downloaded from a store without digests", read(cache(server, dir.resolve("machine4")), second), 0);
+
+            server.close();
+            RemoteArtifactCache offline = cache(server, dir.resolve("machine5"));
+            for (String name : Arrays.asList("third", "fourth", "fifth", "sixth"))
+                expect("Generated while the store is down", read(offline, artifact(name)), 1);
+        }
+    }
+
+    private static RemoteArtifactCache cache(RemoteCacheServer server, Path local) {
+        return new RemoteArtifactCache(server.getUri(), local).setTimeouts(1, 2, TimeUnit.SECONDS);
+    }
+
+    private static Artifact artifact(String name) {
+        byte[] data = contents(name);
+        return StreamableArtifact.ofStreamable(new SimpleArtifactIdentifier("test", name, "1.0", "", "jar"), ArtifactType.BINARY, () -> {
+            GENERATED.incrementAndGet();
+            return new ByteArrayInputStream(data);
+        });
+    }
+
+    private static byte[] contents(String name) {
+        StringBuilder buf = new StringBuilder();
+        for (int x = 0; x < 1000; x++)
+            buf.append(name).append(' ').append(x).append('\n');
+        return buf.toString().getBytes(StandardCharsets.UTF_8);
+    }
+
+    /**
+     * @return Number of times the artifact was generated to read it
+     */
+    private static int read(RemoteArtifactCache cache, Artifact artifact) throws Exception {
+        int before = GENERATED.get();
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        try (InputStream in = artifact.cache(cache).openStream()) {
+            byte[] buf = new byte[8192];
+            int read;
+            while ((read = in.read(buf)) != -1)
+                out.write(buf, 0, read);
+        }
+        check(Arrays.equals(out.toByteArray(), contents(artifact.getIdentifier().getName())), "Wrong contents for " + artifact);
+        return GENERATED.get() - before;
+    }
+
+    private static void expect(String what, int generated, int expected) {
+        check(generated == expected, what + ": generated " + generated + " times, expected " + expected);
+    }
+
+    private static void check(boolean condition, String message) {
+        if (!condition)
+            throw new IllegalStateException(message);
+    }
+
+    private static void delete(Path dir) throws IOException {
+        Files.walkFileTree(dir, new SimpleFileVisitor<Path>() {
+            @Override
+            public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) throws IOException {
+                Files.delete(file);
+                return FileVisitResult.CONTINUE;
+            }
+
+            @Override
+            public FileVisitResult postVisitDirectory(Path d, IOException exc) throws IOException {
+                Files.delete(d);
+                return FileVisitResult.CONTINUE;
+            }
+        });
+    }
+
+}
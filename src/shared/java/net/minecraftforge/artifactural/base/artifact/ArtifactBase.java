@@ -25,6 +25,8 @@ import net.minecraftforge.artifactural.api.artifact.ArtifactMetadata;
 import net.minecraftforge.artifactural.api.artifact.ArtifactType;
 import net.minecraftforge.artifactural.api.cache.ArtifactCache;
 import net.minecraftforge.artifactural.api.transform.ArtifactTransformer;
+import net.minecraftforge.artifactural.base.metrics.Metrics;
+import net.minecraftforge.artifactural.base.metrics.TraceRecorder;
 
 public abstract class ArtifactBase implements Artifact {
 
@@ -56,7 +58,15 @@ public abstract class ArtifactBase implements Artifact {
     @Override
     public Artifact apply(ArtifactTransformer transformer) {
         if (!transformer.appliesTo(this)) return this;
-        return transformer.transform(this);
+        String name = Metrics.nameOf(transformer);
+        Metrics.Timer timer = Metrics.startTransformer();
+        TraceRecorder.Span span = TraceRecorder.begin("transform", name);
+        try {
+            return transformer.transform(this);
+        } finally {
+            span.close();
+            timer.transformer(name);
+        }
     }
 
     @Override
@@ -21,10 +21,11 @@ package net.minecraftforge.artifactural.base.artifact;
 
 import java.io.ByteArrayInputStream;
 import java.io.File;
-import java.io.FileInputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.net.URL;
+import java.nio.file.Files;
+import java.nio.file.Path;
 
 import net.minecraftforge.artifactural.api.artifact.Artifact;
 import net.minecraftforge.artifactural.api.artifact.ArtifactIdentifier;
@@ -36,7 +37,11 @@ import net.minecraftforge.artifactural.api.artifact.Streamable;
 public class StreamableArtifact extends ArtifactBase {
 
     public static Artifact ofFile(ArtifactIdentifier identifier, ArtifactType type, File file) {
-        return new StreamableFileArtifact(identifier, type, file);
+        return new StreamableFileArtifact(identifier, type, file.toPath());
+    }
+
+    public static Artifact ofPath(ArtifactIdentifier identifier, ArtifactType type, Path path) {
+        return new StreamableFileArtifact(identifier, type, path);
     }
 
     public static Artifact ofURL(ArtifactIdentifier identifier, ArtifactType type, URL url) {
@@ -69,8 +74,8 @@ public class StreamableArtifact extends ArtifactBase {
 
     @Override
     public boolean isPresent() {
-        try (InputStream is = openStream()) {
-            is.close();
+        try {
+            openStream().close();
             return true;
         } catch (IOException ex) {
             return false;
@@ -84,20 +89,30 @@ public class StreamableArtifact extends ArtifactBase {
 
     private static class StreamableFileArtifact extends StreamableArtifact implements Artifact.Cached {
 
-        private final File file;
+        private final Path file;
 
-        private StreamableFileArtifact(ArtifactIdentifier identifier, ArtifactType type, File file) {
-            super(identifier, type, () -> new FileInputStream(file));
+        private StreamableFileArtifact(ArtifactIdentifier identifier, ArtifactType type, Path file) {
+            super(identifier, type, () -> Files.newInputStream(file));
             this.file = file;
         }
 
         @Override
         public File asFile() throws MissingArtifactException {
+            return file.toFile();
+        }
+
+        @Override
+        public Path asPath() throws MissingArtifactException {
             return file;
         }
 
         @Override
         public File getFileLocation() throws MissingArtifactException {
+            return file.toFile();
+        }
+
+        @Override
+        public Path getPathLocation() throws MissingArtifactException {
             return file;
         }
 
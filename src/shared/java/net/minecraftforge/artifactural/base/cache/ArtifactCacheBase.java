@@ -27,16 +27,22 @@ import net.minecraftforge.artifactural.api.artifact.MissingArtifactException;
 import net.minecraftforge.artifactural.api.cache.ArtifactCache;
 import net.minecraftforge.artifactural.api.transform.ArtifactTransformer;
 import net.minecraftforge.artifactural.base.artifact.StreamableArtifact;
+import net.minecraftforge.artifactural.base.metrics.Metrics;
+import net.minecraftforge.artifactural.base.metrics.TraceRecorder;
+import net.minecraftforge.artifactural.base.util.HashFunction;
 
 import java.io.File;
-import java.io.FileInputStream;
-import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.FileAlreadyExistsException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.ThreadLocalRandom;
 
 public abstract class ArtifactCacheBase implements ArtifactCache {
 
-    Artifact.Cached doStore(File path, Artifact artifact) {
+    Artifact.Cached doStore(Path path, Artifact artifact) {
         return wrap(
                 StreamableArtifact.ofStreamable(
                         artifact.getIdentifier(),
@@ -47,24 +53,102 @@ public abstract class ArtifactCacheBase implements ArtifactCache {
         );
     }
 
-    private InputStream stream(File path, Artifact artifact) throws IOException {
-        if (!path.exists()) {
-            path.getParentFile().mkdirs();
-            path.createNewFile();
-            FileOutputStream fos = new FileOutputStream(path);
-            InputStream is = artifact.openStream();
-            int read;
-            byte[] bytes = new byte[256];
-            while ((read = is.read(bytes)) > 0) {
-                fos.write(bytes, 0, read);
-            }
-            fos.close();
-            is.close();
+    private InputStream stream(Path path, Artifact artifact) throws IOException {
+        // Files without a digest can't be checked, so they are regenerated here like any other miss
+        if (!ColdStorage.restore(path) || !CacheIntegrity.isCheckable(path)) {
+            CacheLock lock = CacheLock.acquire(path);
+            try {
+                // Whoever held the lock before us, here or in another process, may have just written it
+                if (!ColdStorage.restore(path) || !CacheIntegrity.isCheckable(path)) {
+                    Metrics.get().cacheMiss();
+                    TraceRecorder.Span span = TraceRecorder.begin("cache", path.getFileName().toString());
+                    try {
+                        populate(path, artifact);
+                    } finally {
+                        span.close();
+                    }
+                    return CacheIntegrity.open(path, () -> repair(path, artifact));
+                }
+            } finally {
+                lock.close();
+            }
+        }
+        Metrics.get().cacheHit();
+        return CacheIntegrity.open(path, () -> repair(path, artifact));
+    }
+
+    /**
+     * Regenerates a file that was quarantined while it was streamed, unless another reader already has.
+     */
+    private void repair(Path path, Artifact artifact) throws IOException {
+        CacheLock lock = CacheLock.acquire(path);
+        try {
+            if (!ColdStorage.restore(path) || !CacheIntegrity.isCheckable(path))
+                populate(path, artifact);
+        } finally {
+            lock.close();
+        }
+    }
+
+    /**
+     * Writes the contents of an artifact that isn't cached yet to {@code path}.
+     */
+    void populate(Path path, Artifact artifact) throws IOException {
+        write(path, artifact.openStream());
+    }
+
+    /**
+     * Writes a stream to {@code path}, along with its digest, and closes it.
+     *
+     * @return Number of bytes written
+     */
+    static long write(Path path, InputStream stream) throws IOException {
+        // Written to the side and moved into place, so a crash never leaves a torn file behind
+        Path tmp = createTempFile(path, ".tmp");
+        try {
+            HashFunction.Instance hash = CacheIntegrity.createHash();
+            long total = 0;
+            try (OutputStream fos = Files.newOutputStream(tmp);
+                 InputStream is = stream) {
+                int read;
+                byte[] bytes = new byte[8192];
+                while ((read = is.read(bytes)) > 0) {
+                    fos.write(bytes, 0, read);
+                    hash.update(bytes, 0, read);
+                    total += read;
+                }
+            }
+            CacheIntegrity.commit(tmp, path, hash.finish());
+            Metrics.get().bytesWritten(total);
+            return total;
+        } finally {
+            Files.deleteIfExists(tmp);
+        }
+    }
+
+    /**
+     * Creates an empty file beside {@code file} to write its new contents to before moving them into place.
+     * Unlike {@link Files#createTempFile}, the file gets the same default permissions as any other new file,
+     * so the cache stays readable by everyone that could read it before.
+     */
+    static Path createTempFile(Path file, String suffix) throws IOException {
+        Path dir = file.getParent();
+        Files.createDirectories(dir);
+        String prefix = file.getFileName().toString();
+        while (true) {
+            try {
+                return Files.createFile(dir.resolve(prefix + Long.toUnsignedString(ThreadLocalRandom.current().nextLong()) + suffix));
+            } catch (FileAlreadyExistsException e) {
+                // Try another name
+            }
         }
-        return new FileInputStream(path);
     }
 
     public static Artifact.Cached wrap(Artifact artifact, File file) {
+        return wrap(artifact, file.toPath());
+    }
+
+    public static Artifact.Cached wrap(Artifact artifact, Path file) {
         return new Artifact.Cached() {
 
             @Override
@@ -107,18 +191,39 @@ public abstract class ArtifactCacheBase implements ArtifactCache {
                 return artifact.openStream();
             }
 
+            @Override
+            public InputStream openRange(long offset, long length) throws IOException, MissingArtifactException {
+                // Skips the verification asFile does, a range read shouldn't cost a pass over the whole file
+                if (!ColdStorage.restore(file))
+                    artifact.openStream().close();
+                return StreamableArtifact.ofPath(getIdentifier(), getType(), file).openRange(offset, length);
+            }
+
             @Override
             public File asFile() throws IOException, MissingArtifactException {
-                if(!file.exists()) {
+                return asPath().toFile();
+            }
+
+            @Override
+            public Path asPath() throws IOException, MissingArtifactException {
+                if(!ColdStorage.restore(file) || !CacheIntegrity.verify(file)) {
                     artifact.openStream().close();
+                } else {
+                    Metrics.get().cacheHit();
                 }
                 return file;
             }
 
             @Override
             public File getFileLocation() throws MissingArtifactException {
+                return file.toFile();
+            }
+
+            @Override
+            public Path getPathLocation() throws MissingArtifactException {
                 return file;
             }
+
             @Override
             public String toString() {
                 return "wrapped(" + artifact + ", " + file + ")";
@@ -0,0 +1,130 @@
+/*
+ * Artifactural
+ * Copyright (c) 2018-2021.
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation version 2.1
+ * of the License.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+
+package net.minecraftforge.artifactural.base.cache;
+
+import net.minecraftforge.artifactural.api.artifact.Artifact;
+import net.minecraftforge.artifactural.api.artifact.ArtifactIdentifier;
+import net.minecraftforge.artifactural.api.cache.ArtifactCache;
+import net.minecraftforge.artifactural.api.repository.Repository;
+import net.minecraftforge.artifactural.base.util.BlockingExecutors;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+
+/**
+ * Generates a known set of artifacts into a cache up front, in parallel, instead of
+ * lazily one at a time as Gradle asks for them.
+ */
+public class ArtifactPrewarmer {
+
+    /**
+     * Looks up every identifier in the repository and writes the ones that exist to the cache.
+     * Blocks until every identifier is either cached, missing or failed, a failure of one does not stop the others.
+     *
+     * @param parallelism Maximum number of artifacts generated at once.
+     */
+    public static Result prewarm(Repository repository, ArtifactCache cache, Collection<? extends ArtifactIdentifier> identifiers, int parallelism) {
+        if (parallelism < 1)
+            throw new IllegalArgumentException("Parallelism must be at least 1: " + parallelism);
+        Result result = new Result();
+        if (identifiers.isEmpty())
+            return result;
+
+        ExecutorService executor = BlockingExecutors.create("Artifactural Prewarm", Math.min(parallelism, identifiers.size()));
+        try {
+            Map<ArtifactIdentifier, Future<File>> futures = new LinkedHashMap<>();
+            for (ArtifactIdentifier identifier : identifiers)
+                futures.put(identifier, executor.submit((Callable<File>)() -> materialize(repository, cache, identifier)));
+
+            for (Map.Entry<ArtifactIdentifier, Future<File>> entry : futures.entrySet()) {
+                try {
+                    File file = entry.getValue().get();
+                    if (file == null)
+                        result.missing.add(entry.getKey());
+                    else
+                        result.warmed.put(entry.getKey(), file);
+                } catch (ExecutionException ex) {
+                    result.failed.put(entry.getKey(), ex.getCause() == null ? ex : ex.getCause());
+                } catch (InterruptedException ex) {
+                    Thread.currentThread().interrupt();
+                    throw new RuntimeException(ex);
+                }
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+        return result;
+    }
+
+    private static File materialize(Repository repository, ArtifactCache cache, ArtifactIdentifier identifier) throws Exception {
+        Artifact artifact = repository.getArtifact(identifier);
+        if (!artifact.isPresent())
+            return null;
+        return artifact.optionallyCache(cache).asFile();
+    }
+
+    public static class Result {
+        private final Map<ArtifactIdentifier, File> warmed = new LinkedHashMap<>();
+        private final List<ArtifactIdentifier> missing = new ArrayList<>();
+        private final Map<ArtifactIdentifier, Throwable> failed = new LinkedHashMap<>();
+
+        private Result() {}
+
+        /**
+         * @return Identifiers that are now in the cache, and their files.
+         */
+        public Map<ArtifactIdentifier, File> getWarmed() {
+            return Collections.unmodifiableMap(warmed);
+        }
+
+        /**
+         * @return Identifiers no provider could supply.
+         */
+        public List<ArtifactIdentifier> getMissing() {
+            return Collections.unmodifiableList(missing);
+        }
+
+        /**
+         * @return Identifiers that threw while being generated, and what they threw.
+         */
+        public Map<ArtifactIdentifier, Throwable> getFailed() {
+            return Collections.unmodifiableMap(failed);
+        }
+
+        public boolean isSuccessful() {
+            return missing.isEmpty() && failed.isEmpty();
+        }
+
+        @Override
+        public String toString() {
+            return "Prewarm(warmed=" + warmed.size() + ", missing=" + missing.size() + ", failed=" + failed.size() + ")";
+        }
+    }
+
+}
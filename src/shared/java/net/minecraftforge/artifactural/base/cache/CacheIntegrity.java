@@ -0,0 +1,237 @@
+/*
+ * Artifactural
+ * Copyright (c) 2018-2021.
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation version 2.1
+ * of the License.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+
+package net.minecraftforge.artifactural.base.cache;
+
+import net.minecraftforge.artifactural.base.util.HashFunction;
+
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.BasicFileAttributes;
+
+/**
+ * Keeps a digest beside every cached file, in a hidden {@code .[name].sha1} sidecar, and checks files against it.
+ *
+ * Streams opened through {@link #open} are verified while they are read, so it costs no extra reads; reading to the end
+ * either records that the file is good or quarantines it. Callers that need the whole file up front use {@link #verify},
+ * which hashes it unless a previous check, by either method, already passed for the file's current size and modification
+ * time. Writing a file through {@link #commit} records its digest, but not that it was verified, so it is checked on its
+ * first read like any other. A file that fails verification is moved aside to a hidden {@code .[name].corrupt} file,
+ * so the caller regenerates it. Files cached before digests existed can't be checked, so they are regenerated too.
+ */
+final class CacheIntegrity {
+    private static final HashFunction HASH = HashFunction.SHA1;
+
+    private CacheIntegrity() {}
+
+    static Path getDigestFile(Path file) {
+        return file.resolveSibling('.' + file.getFileName().toString() + '.' + HASH.getExtension());
+    }
+
+    /**
+     * Moves a freshly written file into place, along with its digest.
+     * The digest goes first, so there is never a file in place with the digest of something else.
+     */
+    static void commit(Path tmp, Path file, String digest) throws IOException {
+        writeDigest(file, digest, null);
+        Files.move(tmp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    static HashFunction.Instance createHash() {
+        return HASH.create();
+    }
+
+    /**
+     * @return True if the file exists and has a digest to be checked against.
+     */
+    static boolean isCheckable(Path file) throws IOException {
+        return Files.isRegularFile(file) && readDigest(file) != null;
+    }
+
+    /**
+     * Opens a cached file, verifying it as it is read. If the end of the stream shows the file was corrupt, it is
+     * quarantined, {@code repair} is run to regenerate it, and the read throws, as the bytes already returned were wrong.
+     * Streams that are skipped through or closed early are never checked.
+     */
+    static InputStream open(Path file, Repair repair) throws IOException {
+        String[] sidecar = readDigest(file);
+        if (sidecar == null)
+            throw new IOException("Cached file " + file + " has no digest");
+        String stamp = stamp(file);
+        return new VerifyingInputStream(file, sidecar, stamp, repair);
+    }
+
+    /**
+     * Checks a cached file against its digest, reading it only if it wasn't already checked since it last changed.
+     *
+     * @return False if the file is missing, has no digest, changed while it was read, or was corrupt and has been quarantined.
+     */
+    static boolean verify(Path file) throws IOException {
+        String stamp = stamp(file);
+        if (stamp == null)
+            return false;
+        String[] sidecar = readDigest(file);
+        if (sidecar == null)
+            return false;
+        if (sidecar.length > 1 && stamp.equals(sidecar[1]))
+            return true;
+        String actual;
+        try (InputStream in = Files.newInputStream(file)) {
+            actual = HASH.hash(in);
+        }
+        return check(file, sidecar, actual, stamp);
+    }
+
+    /**
+     * Records the outcome of hashing a file, unless it was replaced while it was read.
+     *
+     * @return True if the file matched its digest.
+     */
+    private static boolean check(Path file, String[] sidecar, String actual, String stamp) throws IOException {
+        if (stamp == null || !stamp.equals(stamp(file)))
+            return false;
+        if (!sidecar[0].equals(actual)) {
+            quarantine(file);
+            return false;
+        }
+        if (sidecar.length < 2 || !stamp.equals(sidecar[1]))
+            writeDigest(file, actual, stamp);
+        return true;
+    }
+
+    /**
+     * @return Size and modification time of the file, any rewrite changes it, or null if it doesn't exist
+     */
+    private static String stamp(Path file) throws IOException {
+        BasicFileAttributes attrs;
+        try {
+            attrs = Files.readAttributes(file, BasicFileAttributes.class);
+        } catch (NoSuchFileException e) {
+            return null;
+        }
+        return attrs.size() + ":" + attrs.lastModifiedTime().toMillis();
+    }
+
+    /**
+     * @return The digest, followed by the stamp of the file when it was last verified if it has been, or null if there is no digest
+     */
+    private static String[] readDigest(Path file) throws IOException {
+        Path digest = getDigestFile(file);
+        try {
+            String ret = new String(Files.readAllBytes(digest), StandardCharsets.UTF_8).trim();
+            return ret.isEmpty() ? null : ret.split(" ");
+        } catch (NoSuchFileException e) {
+            return null;
+        }
+    }
+
+    private static void writeDigest(Path file, String digest, String stamp) throws IOException {
+        Path target = getDigestFile(file);
+        Path tmp = ArtifactCacheBase.createTempFile(target, ".tmp");
+        try {
+            Files.write(tmp, (stamp == null ? digest : digest + ' ' + stamp).getBytes(StandardCharsets.UTF_8));
+            Files.move(tmp, target, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } finally {
+            Files.deleteIfExists(tmp);
+        }
+    }
+
+    private static void quarantine(Path file) throws IOException {
+        Path target = file.resolveSibling('.' + file.getFileName().toString() + ".corrupt");
+        Files.move(file, target, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    /**
+     * Regenerates a file that was quarantined while it was streamed.
+     */
+    interface Repair {
+        void run() throws IOException;
+    }
+
+    private static class VerifyingInputStream extends FilterInputStream {
+        private final Path file;
+        private final String[] sidecar;
+        private final String stamp;
+        private final Repair repair;
+        private final HashFunction.Instance hash = HASH.create();
+        // Skipped bytes are never hashed, so the stream can't be verified anymore
+        private boolean verifiable = true;
+
+        private VerifyingInputStream(Path file, String[] sidecar, String stamp, Repair repair) throws IOException {
+            super(Files.newInputStream(file));
+            this.file = file;
+            this.sidecar = sidecar;
+            this.stamp = stamp;
+            this.repair = repair;
+        }
+
+        @Override
+        public int read() throws IOException {
+            int ret = super.read();
+            if (ret == -1)
+                finish();
+            else if (verifiable)
+                hash.update((byte)ret);
+            return ret;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            int ret = super.read(b, off, len);
+            if (ret == -1)
+                finish();
+            else if (verifiable)
+                hash.update(b, off, ret);
+            return ret;
+        }
+
+        @Override
+        public long skip(long n) throws IOException {
+            verifiable = false;
+            return super.skip(n);
+        }
+
+        @Override
+        public boolean markSupported() {
+            return false;
+        }
+
+        private void finish() throws IOException {
+            if (!verifiable)
+                return;
+            verifiable = false;
+            // Release the file first, so it can be moved aside on platforms that lock open files
+            super.close();
+            String actual = hash.finish();
+            // Records the result, or quarantines the file, only if it is still the file we read
+            check(file, sidecar, actual, stamp);
+            if (sidecar[0].equals(actual))
+                return;
+            repair.run();
+            throw new IOException("Cached file " + file + " was corrupt, it has been quarantined and regenerated");
+        }
+    }
+
+}
@@ -0,0 +1,287 @@
+/*
+ * Artifactural
+ * Copyright (c) 2018-2021.
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation version 2.1
+ * of the License.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+
+package net.minecraftforge.artifactural.base.cache;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.lang.management.ManagementFactory;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.channels.OverlappingFileLockException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Lock on a single cache entry, shared by every thread and process using the same cache root, so an entry is only
+ * generated once no matter how many daemons want it at the same time.
+ *
+ * The lock is a hidden {@code .[name].lock} file beside the entry, locked with an OS file lock, which the OS releases
+ * when a process dies, so a crash can't leave an entry locked forever. Threads of one process queue on an in memory lock
+ * first, as file locks belong to the whole process. Lock files are left in place once released, deleting them would let
+ * two processes lock different files for the same entry.
+ *
+ * The holder keeps a lease in the lock file, renewed in the background. A lock whose lease ran out is treated as stale,
+ * such as one still held by a hung process or left behind on a network file system, and is broken by replacing the file.
+ * Waiting on a live lock gives up after the timeout. Callers must check for the entry again once they hold the lock,
+ * another process may have generated it in the meantime.
+ */
+final class CacheLock implements AutoCloseable {
+    private static final String SUFFIX = ".lock";
+    private static final long LEASE = TimeUnit.SECONDS.toMillis(Long.getLong("artifactural.cache.lock.lease", 30));
+    private static final long TIMEOUT = TimeUnit.SECONDS.toMillis(Long.getLong("artifactural.cache.lock.timeout", 10 * 60));
+    private static final long MAX_POLL = 200;
+    private static final String OWNER = ManagementFactory.getRuntimeMXBean().getName();
+    private static final Map<Path, Local> LOCAL = new ConcurrentHashMap<>();
+    private static final ScheduledExecutorService RENEWER = Executors.newSingleThreadScheduledExecutor(r -> {
+        Thread thread = new Thread(r, "Artifactural Cache Lock Lease");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    private final Path key;
+    private final Local local;
+    private final FileChannel file;
+    private final FileLock lock;
+    private final ScheduledFuture<?> renewal;
+
+    private CacheLock(Path key, Local local, FileChannel file, FileLock lock) {
+        this.key = key;
+        this.local = local;
+        this.file = file;
+        this.lock = lock;
+        this.renewal = lock == null ? null : RENEWER.scheduleWithFixedDelay(this::renew, LEASE / 3, LEASE / 3, TimeUnit.MILLISECONDS);
+    }
+
+    static Path getLockFile(Path file) {
+        return file.resolveSibling('.' + file.getFileName().toString() + SUFFIX);
+    }
+
+    /**
+     * Blocks until this thread holds the lock for {@code target}. A thread that already holds it gets a nested
+     * handle, which leaves the file lock to the outer one.
+     *
+     * @throws IOException If the lock is still held by someone else after the timeout, or the thread is interrupted
+     */
+    static CacheLock acquire(Path target) throws IOException {
+        Path key = target.toAbsolutePath();
+        Local local = LOCAL.compute(key, (k, v) -> {
+            Local ret = v == null ? new Local() : v;
+            ret.users++;
+            return ret;
+        });
+        long deadline = System.currentTimeMillis() + TIMEOUT;
+        boolean success = false;
+        try {
+            try {
+                if (!local.lock.tryLock(TIMEOUT, TimeUnit.MILLISECONDS))
+                    throw new IOException("Timed out waiting for " + target + " in this process");
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException("Interrupted waiting for " + target);
+            }
+            try {
+                CacheLock ret;
+                if (local.lock.getHoldCount() > 1) {
+                    // Held further up this thread's stack, such as by a transformer reading another cached artifact, and
+                    // the file lock taken then covers us too. Locking the file again would fail, and closing the second
+                    // channel would drop the outer holder's lock, as file locks belong to the whole process.
+                    ret = new CacheLock(key, local, null, null);
+                } else {
+                    ret = lockFile(key, local, getLockFile(key), deadline);
+                }
+                success = true;
+                return ret;
+            } finally {
+                if (!success)
+                    local.lock.unlock();
+            }
+        } finally {
+            if (!success)
+                release(key, local);
+        }
+    }
+
+    private static CacheLock lockFile(Path key, Local local, Path lockFile, long deadline) throws IOException {
+        Files.createDirectories(lockFile.getParent());
+        long poll = 10;
+        while (true) {
+            Object before = getFileKey(lockFile);
+            FileChannel channel;
+            try {
+                channel = FileChannel.open(lockFile, StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+            } catch (UnsupportedOperationException e) {
+                // File system without file channels, such as some in memory ones, which can't be shared between processes anyway
+                return new CacheLock(key, local, null, null);
+            }
+            FileLock lock;
+            while (true) {
+                try {
+                    lock = channel.tryLock();
+                    break;
+                } catch (OverlappingFileLockException e) {
+                    // Some other code in this process locked the file directly. Waited out on the same channel,
+                    // closing it to try again would drop that code's lock as well.
+                    try {
+                        poll = pause(lockFile, "another lock in this process", deadline, poll);
+                    } catch (IOException ex) {
+                        channel.close();
+                        throw ex;
+                    }
+                } catch (IOException | UnsupportedOperationException e) {
+                    // File system without lock support, the in memory lock is the best we can do
+                    return new CacheLock(key, local, channel, null);
+                }
+            }
+
+            if (lock != null) {
+                // Someone may have broken a stale lock between us opening the file and locking it, make sure it's still the one in place.
+                // Compared by file key, opening the file again to compare contents would drop the lock, as closing any
+                // descriptor of a file releases all of the process's POSIX locks on it. Costs one extra round when we created the file.
+                if (!Objects.equals(before, getFileKey(lockFile))) {
+                    channel.close();
+                    continue;
+                }
+                writeLease(channel);
+                return new CacheLock(key, local, channel, lock);
+            }
+
+            String holder = readLease(channel);
+            channel.close();
+            if (isStale(holder, lockFile)) {
+                // The next attempt opens a fresh file, the old holder, if it is still alive, keeps a lock nobody looks at
+                Files.deleteIfExists(lockFile);
+                continue;
+            }
+            poll = pause(lockFile, holder, deadline, poll);
+        }
+    }
+
+    /**
+     * Waits before the next attempt at a lock file.
+     *
+     * @return How long to wait the time after
+     * @throws IOException If the deadline passed, or the thread is interrupted
+     */
+    private static long pause(Path lockFile, String holder, long deadline, long poll) throws IOException {
+        if (System.currentTimeMillis() >= deadline)
+            throw new IOException("Timed out waiting for " + lockFile + " held by " + holder);
+        try {
+            Thread.sleep(poll);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted waiting for " + lockFile);
+        }
+        return Math.min(poll * 2, MAX_POLL);
+    }
+
+    /**
+     * @return What identifies the file currently at {@code path}, such as its inode, or null if it doesn't exist or the file system has no such thing
+     */
+    private static Object getFileKey(Path path) {
+        try {
+            return Files.readAttributes(path, BasicFileAttributes.class).fileKey();
+        } catch (IOException e) {
+            return null;
+        }
+    }
+
+    private static String readLease(FileChannel channel) throws IOException {
+        ByteBuffer buf = ByteBuffer.allocate((int)Math.min(channel.size(), 1024));
+        channel.read(buf, 0);
+        return new String(buf.array(), 0, buf.position(), StandardCharsets.UTF_8).trim();
+    }
+
+    /**
+     * A lease is {@code [renewed at millis] [owner]}, a holder that just locked the file may not have written one yet,
+     * so an empty or unreadable lease falls back to the age of the file.
+     */
+    private static boolean isStale(String lease, Path lockFile) {
+        long renewed;
+        int idx = lease.indexOf(' ');
+        try {
+            renewed = Long.parseLong(idx == -1 ? lease : lease.substring(0, idx));
+        } catch (NumberFormatException e) {
+            try {
+                renewed = Files.getLastModifiedTime(lockFile).toMillis();
+            } catch (IOException ex) {
+                renewed = 0;
+            }
+        }
+        return renewed != 0 && System.currentTimeMillis() - renewed > LEASE;
+    }
+
+    private static void writeLease(FileChannel channel) throws IOException {
+        String lease = System.currentTimeMillis() + " " + OWNER + '#' + Thread.currentThread().getId();
+        byte[] data = (lease + '\n').getBytes(StandardCharsets.UTF_8);
+        channel.write(ByteBuffer.wrap(data), 0);
+        channel.truncate(data.length);
+    }
+
+    private synchronized void renew() {
+        if (!lock.isValid())
+            return;
+        try {
+            writeLease(file);
+        } catch (IOException e) {
+            // Worst case someone else thinks the lease ran out and generates the entry as well, which the atomic commit tolerates
+        }
+    }
+
+    @Override
+    public void close() {
+        try {
+            if (renewal != null)
+                renewal.cancel(false);
+            synchronized (this) {
+                if (lock != null && lock.isValid())
+                    lock.release();
+                if (file != null)
+                    file.close();
+            }
+        } catch (IOException e) {
+            // Closing the file releases the lock regardless
+        } finally {
+            local.lock.unlock();
+            release(key, local);
+        }
+    }
+
+    private static void release(Path key, Local local) {
+        LOCAL.computeIfPresent(key, (k, v) -> v == local && --v.users == 0 ? null : v);
+    }
+
+    private static class Local {
+        private final ReentrantLock lock = new ReentrantLock();
+        private int users = 0;
+    }
+
+}
@@ -0,0 +1,170 @@
+/*
+ * Artifactural
+ * Copyright (c) 2018-2021.
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation version 2.1
+ * of the License.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+
+package net.minecraftforge.artifactural.base.cache;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.BasicFileAttributeView;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.nio.file.attribute.FileTime;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Moves cached files to and from their compressed form, which sits beside the original with a
+ * {@code .gz} suffix. Only one of the two exists at a time, outside of the moment of switching.
+ *
+ * The compressed file keeps the modification time of the original, and restoring puts it back,
+ * so anything that validates a cached file by its size and modification time accepts the restored file.
+ */
+final class ColdStorage {
+    static final String SUFFIX = ".gz";
+    // Touching a file on every hit would cost a write per read, the policy works in days so this is plenty precise.
+    private static final long TOUCH_INTERVAL = TimeUnit.HOURS.toMillis(1);
+
+    private ColdStorage() {}
+
+    static Path getColdFile(Path file) {
+        return file.resolveSibling(file.getFileName() + SUFFIX);
+    }
+
+    /**
+     * Records that a cached file was used. Explicitly setting the access time works even on file systems mounted with noatime,
+     * and leaves the modification time alone.
+     */
+    static void touch(Path file) {
+        try {
+            BasicFileAttributeView view = Files.getFileAttributeView(file, BasicFileAttributeView.class);
+            long now = System.currentTimeMillis();
+            if (now - view.readAttributes().lastAccessTime().toMillis() > TOUCH_INTERVAL)
+                view.setTimes(null, FileTime.fromMillis(now), null);
+        } catch (IOException e) {
+            // Only costs the file being compressed earlier than it should be
+        }
+    }
+
+    static long getLastAccess(BasicFileAttributes attrs) {
+        // Some file systems don't track access times at all, and report something older than the file itself
+        return Math.max(attrs.lastAccessTime().toMillis(), attrs.lastModifiedTime().toMillis());
+    }
+
+    /**
+     * Restores the compressed form of {@code file} if there is one, and records that the file is being used.
+     * Holds the entry's lock throughout, so a {@link #compress} that starts afterwards sees the use and leaves the
+     * file in place for the caller to open.
+     *
+     * @return True if {@code file} now exists
+     */
+    static boolean restore(Path file) throws IOException {
+        CacheLock lock = CacheLock.acquire(file);
+        try {
+            Path cold = getColdFile(file);
+            if (Files.exists(file)) {
+                // Left behind by a switch that died half way, restoring it later would bring back an old version
+                Files.deleteIfExists(cold);
+            } else {
+                if (!Files.exists(cold))
+                    return false;
+                Path tmp = ArtifactCacheBase.createTempFile(file, ".tmp");
+                try {
+                    FileTime modified = Files.getLastModifiedTime(cold);
+                    try (InputStream in = new GZIPInputStream(Files.newInputStream(cold));
+                         OutputStream out = Files.newOutputStream(tmp)) {
+                        copy(in, out);
+                    }
+                    Files.setLastModifiedTime(tmp, modified);
+                    Files.move(tmp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+                } finally {
+                    Files.deleteIfExists(tmp);
+                }
+                Files.deleteIfExists(cold);
+            }
+            markUsed(file);
+            return true;
+        } finally {
+            lock.close();
+        }
+    }
+
+    /**
+     * Unlike {@link #touch}, always sets the access time, as compress only checks it against when its sweep started.
+     */
+    private static void markUsed(Path file) {
+        try {
+            Files.getFileAttributeView(file, BasicFileAttributeView.class).setTimes(null, FileTime.fromMillis(System.currentTimeMillis()), null);
+        } catch (IOException e) {
+            // Only costs the file being compressed earlier than it should be
+        }
+    }
+
+    /**
+     * Replaces {@code file} with its compressed form, unless it was used since {@code since}. Holds the entry's lock
+     * throughout, so it never races with the entry being regenerated.
+     *
+     * @param since When the caller decided the file was cold
+     * @return Number of bytes saved, which may be negative for files that don't compress.
+     */
+    static long compress(Path file, long since) throws IOException {
+        CacheLock lock = CacheLock.acquire(file);
+        try {
+            BasicFileAttributes attrs;
+            try {
+                attrs = Files.readAttributes(file, BasicFileAttributes.class);
+            } catch (NoSuchFileException e) {
+                return 0;
+            }
+            // Read or rewritten since the caller looked at it, so no longer cold
+            if (getLastAccess(attrs) >= since)
+                return 0;
+
+            Path target = getColdFile(file);
+            Path tmp = ArtifactCacheBase.createTempFile(file, ".tmp");
+            try {
+                try (InputStream in = Files.newInputStream(file);
+                     OutputStream out = new GZIPOutputStream(Files.newOutputStream(tmp))) {
+                    copy(in, out);
+                }
+                Files.setLastModifiedTime(tmp, attrs.lastModifiedTime());
+                Files.move(tmp, target, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            } finally {
+                Files.deleteIfExists(tmp);
+            }
+            long saved = attrs.size() - Files.size(target);
+            Files.delete(file);
+            return saved;
+        } finally {
+            lock.close();
+        }
+    }
+
+    private static void copy(InputStream in, OutputStream out) throws IOException {
+        byte[] buf = new byte[8192];
+        int read;
+        while ((read = in.read(buf)) > 0)
+            out.write(buf, 0, read);
+    }
+
+}
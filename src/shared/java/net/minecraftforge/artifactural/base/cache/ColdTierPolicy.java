@@ -0,0 +1,120 @@
+/*
+ * Artifactural
+ * Copyright (c) 2018-2021.
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation version 2.1
+ * of the License.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+
+package net.minecraftforge.artifactural.base.cache;
+
+import net.minecraftforge.artifactural.api.artifact.ArtifactType;
+
+import java.io.File;
+import java.nio.file.Path;
+import java.util.EnumMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Function;
+
+/**
+ * Decides which cached files have gone unused long enough to be moved to compressed storage,
+ * based on their {@link ArtifactType} and how long ago they were last accessed.
+ * Types without an age configured are never compressed.
+ *
+ * Example, compress sources after a week and anything else after a month if it is at least 1MB:
+ * <pre>
+ *   new ColdTierPolicy()
+ *       .coldAfter(ArtifactType.SOURCE, 7, TimeUnit.DAYS)
+ *       .coldAfter(ArtifactType.OTHER, 30, TimeUnit.DAYS)
+ *       .minimumSize(1024 * 1024);
+ * </pre>
+ */
+public class ColdTierPolicy {
+    private static final String[] BINARY_EXTENSIONS = { "jar", "zip", "war", "aar", "exe", "dll", "so", "dylib" };
+
+    private final Map<ArtifactType, Long> ages = new EnumMap<>(ArtifactType.class);
+    private long minimumSize = 0;
+    private Function<Path, ArtifactType> typeOf = ColdTierPolicy::guessType;
+
+    /**
+     * Files of this type are compressed once they have not been accessed for this long.
+     */
+    public ColdTierPolicy coldAfter(ArtifactType type, long age, TimeUnit unit) {
+        if (age < 0)
+            throw new IllegalArgumentException("Age can not be negative: " + age);
+        ages.put(type, unit.toMillis(age));
+        return this;
+    }
+
+    /**
+     * Files smaller than this are never compressed, as they don't save enough space to be worth the time to restore them.
+     */
+    public ColdTierPolicy minimumSize(long bytes) {
+        this.minimumSize = bytes;
+        return this;
+    }
+
+    /**
+     * Sets how the type of a cached file is determined, as the cache layout doesn't record it.
+     * Defaults to treating {@code sources} classifiers as {@link ArtifactType#SOURCE}, archives and
+     * native libraries as {@link ArtifactType#BINARY} and everything else as {@link ArtifactType#OTHER}.
+     */
+    public ColdTierPolicy typeOf(Function<File, ArtifactType> typeOf) {
+        this.typeOf = path -> typeOf.apply(path.toFile());
+        return this;
+    }
+
+    /**
+     * Same as {@link #typeOf(Function)}, required for caches outside the default file system.
+     */
+    public ColdTierPolicy typeOfPath(Function<Path, ArtifactType> typeOf) {
+        this.typeOf = typeOf;
+        return this;
+    }
+
+    /**
+     * @param lastAccess Last time the file was read, in milliseconds since the epoch.
+     */
+    public boolean isCold(File file, long size, long lastAccess, long now) {
+        return isCold(file.toPath(), size, lastAccess, now);
+    }
+
+    public boolean isCold(Path file, long size, long lastAccess, long now) {
+        if (size < minimumSize)
+            return false;
+        Long age = ages.get(typeOf.apply(file));
+        return age != null && now - lastAccess >= age;
+    }
+
+    private static ArtifactType guessType(Path file) {
+        String name = file.getFileName().toString().toLowerCase(Locale.ROOT);
+        int dot = name.lastIndexOf('.');
+        String base = dot == -1 ? name : name.substring(0, dot);
+        if (base.endsWith("-sources") || base.endsWith("-src"))
+            return ArtifactType.SOURCE;
+        String ext = dot == -1 ? "" : name.substring(dot + 1);
+        for (String bin : BINARY_EXTENSIONS)
+            if (bin.equals(ext))
+                return ArtifactType.BINARY;
+        return ArtifactType.OTHER;
+    }
+
+    @Override
+    public String toString() {
+        return "ColdTierPolicy(" + ages + ", minimumSize=" + minimumSize + ")";
+    }
+
+}
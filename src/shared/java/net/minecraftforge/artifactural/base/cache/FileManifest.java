@@ -0,0 +1,268 @@
+/*
+ * Artifactural
+ * Copyright (c) 2018-2021.
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation version 2.1
+ * of the License.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+
+package net.minecraftforge.artifactural.base.cache;
+
+import net.minecraftforge.artifactural.base.util.HashFunction;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Persistent map of string keys to sets of files, used to remember the result of an expensive
+ * lookup across daemons. Each file is recorded with its size and modification time, and an
+ * entry is only returned while all of its files still match, so revalidating costs a stat per file.
+ *
+ * Entries belong to a fingerprint, and only entries written with the current one are used. Every record
+ * carries a short hash of its fingerprint, as a process with another fingerprint may have rewritten the
+ * manifest since this one loaded it, so the header alone can't vouch for what is appended after it.
+ * Entries are appended to the file as they are added and it is compacted when loaded, dropping the
+ * entries of other fingerprints, so a process never rewrites the full manifest per entry.
+ *
+ * Format, one record per line, tab separated with tabs, newlines and backslashes escaped:
+ * <pre>
+ *   fingerprint  [fingerprint]
+ *   +  [fingerprint hash]  [key]  ([path]  [size]  [modified])*
+ *   -  [fingerprint hash]  [key]
+ * </pre>
+ */
+public class FileManifest {
+    private static final String HEADER = "# Artifactural file manifest v2";
+
+    private final File file;
+    private final String fingerprint;
+    private final String tag;
+    private final Map<String, Entry> entries = new ConcurrentHashMap<>();
+    private volatile boolean loaded = false;
+
+    /**
+     * @param file Where the manifest is stored, created on first write.
+     * @param fingerprint Identifies everything the recorded entries depend on, must not contain line breaks.
+     */
+    public FileManifest(File file, String fingerprint) {
+        this.file = file;
+        this.fingerprint = fingerprint;
+        this.tag = HashFunction.SHA1.hash(fingerprint).substring(0, 16);
+    }
+
+    public File getFile() {
+        return file;
+    }
+
+    /**
+     * @return The files recorded for this key, or null if there is no entry, or any of the files has changed since it was recorded.
+     */
+    public List<File> get(String key) {
+        load();
+        Entry entry = entries.get(key);
+        if (entry == null)
+            return null;
+        if (!entry.isValid()) {
+            entries.remove(key, entry);
+            return null;
+        }
+        return entry.files;
+    }
+
+    /**
+     * Records the current state of {@code files} under {@code key}, replacing any existing entry.
+     */
+    public void put(String key, Collection<File> files) {
+        load();
+        Entry entry = new Entry(files);
+        entries.put(key, entry);
+        append(record(key, entry));
+    }
+
+    public void remove(String key) {
+        load();
+        if (entries.remove(key) != null)
+            append("-\t" + tag + '\t' + escape(key) + '\n');
+    }
+
+    private void load() {
+        if (loaded) return;
+        synchronized (this) {
+            if (loaded) return;
+            int records = 0;
+            boolean matches = false;
+            if (file.exists()) {
+                try (BufferedReader reader = Files.newBufferedReader(file.toPath(), StandardCharsets.UTF_8)) {
+                    String line;
+                    while ((line = reader.readLine()) != null) {
+                        String[] pts = line.split("\t", -1);
+                        if (pts[0].equals("fingerprint")) {
+                            // Otherwise rewritten for its own fingerprint, so compact it back to ours
+                            matches = pts.length == 2 && fingerprint.equals(unescape(pts[1]));
+                        } else if (pts.length < 3 || !tag.equals(pts[1])) {
+                            // Written with another fingerprint, a header, or a line torn by a crashed writer, skip it.
+                            records++;
+                        } else if (pts[0].equals("+") && (pts.length - 3) % 3 == 0) {
+                            Entry entry = Entry.parse(pts);
+                            if (entry != null) {
+                                entries.put(unescape(pts[2]), entry);
+                                records++;
+                            }
+                        } else if (pts[0].equals("-") && pts.length == 3) {
+                            entries.remove(unescape(pts[2]));
+                            records++;
+                        }
+                    }
+                } catch (IOException e) {
+                    entries.clear();
+                    matches = false;
+                }
+            }
+            if (!matches || records > entries.size() * 2 + 16)
+                rewrite();
+            loaded = true;
+        }
+    }
+
+    private void rewrite() {
+        StringBuilder buf = new StringBuilder(HEADER).append('\n');
+        buf.append("fingerprint\t").append(escape(fingerprint)).append('\n');
+        try {
+            file.getParentFile().mkdirs();
+            File tmp = File.createTempFile(file.getName(), ".tmp", file.getParentFile());
+            try (OutputStream out = new FileOutputStream(tmp)) {
+                out.write(buf.toString().getBytes(StandardCharsets.UTF_8));
+                for (Map.Entry<String, Entry> e : entries.entrySet())
+                    out.write(record(e.getKey(), e.getValue()).getBytes(StandardCharsets.UTF_8));
+            }
+            Files.move(tmp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException e) {
+            // The manifest is only an optimization, losing it just means doing the real lookups again.
+        }
+    }
+
+    private synchronized void append(String line) {
+        // A single write of a whole line, so concurrent appenders in other processes don't interleave mid line.
+        try (OutputStream out = new FileOutputStream(file, true)) {
+            out.write(line.getBytes(StandardCharsets.UTF_8));
+        } catch (IOException e) {
+            // See rewrite
+        }
+    }
+
+    private String record(String key, Entry entry) {
+        StringBuilder line = new StringBuilder("+\t").append(tag).append('\t').append(escape(key));
+        for (int x = 0; x < entry.files.size(); x++) {
+            line.append('\t').append(escape(entry.files.get(x).getAbsolutePath()))
+                .append('\t').append(entry.sizes[x])
+                .append('\t').append(entry.modified[x]);
+        }
+        return line.append('\n').toString();
+    }
+
+    private static String escape(String value) {
+        StringBuilder buf = new StringBuilder(value.length());
+        for (int x = 0; x < value.length(); x++) {
+            char c = value.charAt(x);
+            switch (c) {
+                case '\\': buf.append("\\\\"); break;
+                case '\t': buf.append("\\t"); break;
+                case '\n': buf.append("\\n"); break;
+                case '\r': buf.append("\\r"); break;
+                default: buf.append(c);
+            }
+        }
+        return buf.toString();
+    }
+
+    private static String unescape(String value) {
+        if (value.indexOf('\\') == -1)
+            return value;
+        StringBuilder buf = new StringBuilder(value.length());
+        for (int x = 0; x < value.length(); x++) {
+            char c = value.charAt(x);
+            if (c == '\\' && x + 1 < value.length()) {
+                char n = value.charAt(++x);
+                buf.append(n == 't' ? '\t' : n == 'n' ? '\n' : n == 'r' ? '\r' : n);
+            } else {
+                buf.append(c);
+            }
+        }
+        return buf.toString();
+    }
+
+    private static class Entry {
+        private final List<File> files;
+        private final long[] sizes;
+        private final long[] modified;
+
+        private Entry(Collection<File> files) {
+            this.files = Collections.unmodifiableList(new ArrayList<>(files));
+            this.sizes = new long[this.files.size()];
+            this.modified = new long[this.files.size()];
+            for (int x = 0; x < sizes.length; x++) {
+                File f = this.files.get(x);
+                sizes[x] = f.length();
+                modified[x] = f.lastModified();
+            }
+        }
+
+        private Entry(List<File> files, long[] sizes, long[] modified) {
+            this.files = Collections.unmodifiableList(files);
+            this.sizes = sizes;
+            this.modified = modified;
+        }
+
+        private boolean isValid() {
+            for (int x = 0; x < sizes.length; x++) {
+                File f = files.get(x);
+                // lastModified is 0 for missing files, so check both to also catch a file that was deleted
+                long mod = f.lastModified();
+                if (mod == 0 || mod != modified[x] || f.length() != sizes[x])
+                    return false;
+            }
+            return true;
+        }
+
+        private static Entry parse(String[] pts) {
+            int count = (pts.length - 3) / 3;
+            List<File> files = new ArrayList<>(count);
+            long[] sizes = new long[count];
+            long[] modified = new long[count];
+            try {
+                for (int x = 0; x < count; x++) {
+                    files.add(new File(unescape(pts[3 + x * 3])));
+                    sizes[x] = Long.parseLong(pts[4 + x * 3]);
+                    modified[x] = Long.parseLong(pts[5 + x * 3]);
+                }
+            } catch (NumberFormatException e) {
+                return null;
+            }
+            return new Entry(files, sizes, modified);
+        }
+    }
+
+}
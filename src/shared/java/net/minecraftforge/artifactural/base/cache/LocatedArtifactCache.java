@@ -24,28 +24,123 @@ import net.minecraftforge.artifactural.api.artifact.ArtifactIdentifier;
 import net.minecraftforge.artifactural.base.util.PatternReplace;
 
 import java.io.File;
+import java.io.IOException;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.attribute.BasicFileAttributes;
 import java.util.AbstractMap;
+import java.util.HashMap;
 import java.util.Map;
 import java.util.Map.Entry;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
 import java.util.stream.Collectors;
 import java.util.stream.Stream;
 
 public class LocatedArtifactCache extends ArtifactCacheBase {
     private static final String PATTERN = "[group]/[name](/[meta_hash])/[version]/[name]-[version](-[classifier])(-[specifier]).[extension]";
-    private final File path;
+    // A file lock can only be held once per process, so there may only be one store per directory
+    private static final Map<Path, PackStore> PACKS = new HashMap<>();
+    private final Path path;
+    private volatile MetaHashSweeper sweeper;
+    private volatile PackStore pack;
+    private volatile long packThreshold;
 
     public LocatedArtifactCache(File path) {
+        this(path.toPath());
+    }
+
+    /**
+     * @param path Root of the cache, on any {@link java.nio.file.FileSystem}
+     */
+    public LocatedArtifactCache(Path path) {
         this.path = path;
     }
 
+    /**
+     * Starts tracking which meta_hash variants this cache uses, so stale ones can be collected.
+     * Call {@link MetaHashSweeper#start(long, TimeUnit)} on the result to sweep in the background.
+     *
+     * @param grace How long a variant must go unused, by every process sharing this cache, before it is deleted.
+     */
+    public synchronized MetaHashSweeper collectStaleVariants(long grace, TimeUnit unit) {
+        if (sweeper == null) {
+            sweeper = new MetaHashSweeper(path, grace, unit);
+            sweeper.setPack(pack);
+        }
+        return sweeper;
+    }
+
+    /**
+     * Stores artifacts of at most {@code threshold} bytes in a single {@link PackStore} in the cache root, instead of a file each.
+     * Artifacts already cached as files stay where they are. The store is shared by every cache of this process with the same root,
+     * call {@link PackStore#start(long, TimeUnit)} on it to compact it in the background. Entries only become dead space when
+     * replaced, or when their variant is collected by {@link #collectStaleVariants(long, TimeUnit)}.
+     */
+    public synchronized PackStore packSmallArtifacts(long threshold) throws IOException {
+        if (threshold <= 0)
+            throw new IllegalArgumentException("Threshold must be positive: " + threshold);
+        if (pack == null) {
+            Path dir = path.resolve(PackStore.DIRECTORY).toAbsolutePath();
+            synchronized (PACKS) {
+                PackStore existing = PACKS.get(dir);
+                if (existing == null) {
+                    existing = new PackStore(dir);
+                    PACKS.put(dir, existing);
+                }
+                pack = existing;
+            }
+            if (sweeper != null)
+                sweeper.setPack(pack);
+        }
+        packThreshold = threshold;
+        return pack;
+    }
+
     @Override
     public Artifact.Cached store(Artifact artifact) {
-        return doStore(getPath(artifact), artifact);
+        PackStore pack = this.pack;
+        if (pack != null)
+            return new PackedArtifact(artifact, pack, packThreshold, getRelativePath(artifact), getLocation(artifact));
+        return doStore(getLocation(artifact), artifact);
     }
 
     public File getPath(Artifact artifact) {
+        return getLocation(artifact).toFile();
+    }
+
+    /**
+     * Same as {@link #getPath(Artifact)}, for caches outside the default file system.
+     */
+    public Path getLocation(Artifact artifact) {
+        Map<String, String> names = getNames(artifact);
+        MetaHashSweeper sweeper = this.sweeper;
+        String hash = names.get("meta_hash");
+        if (sweeper != null && hash != null && !hash.isEmpty())
+            sweeper.markLive(resolve(PatternReplace.replace("[group]/[name]/[meta_hash]", names)));
+        return resolve(PatternReplace.replace(PATTERN, names));
+    }
+
+    // Relative paths are separated by '/', which other file systems may not understand
+    private Path resolve(String relative) {
+        Path ret = path;
+        for (String part : relative.split("/"))
+            ret = ret.resolve(part);
+        return ret;
+    }
+
+    /**
+     * @return Where an artifact goes relative to the root of any cache using this layout, separated by '/'.
+     */
+    public static String getRelativePath(Artifact artifact) {
+        return PatternReplace.replace(PATTERN, getNames(artifact));
+    }
+
+    private static Map<String, String> getNames(Artifact artifact) {
         ArtifactIdentifier identifier = artifact.getIdentifier();
-        Map<String, String> names = Stream.of(
+        return Stream.of(
             entry("group", identifier.getGroup()),
             entry("name", identifier.getName()),
             entry("version", identifier.getVersion()),
@@ -54,7 +149,46 @@ public class LocatedArtifactCache extends ArtifactCacheBase {
             //entry("specifier", specifier), /?
             entry("meta_hash", artifact.getMetadata().getHash())
         ).collect(Collectors.toMap(Entry::getKey, Entry::getValue));
-        return new File(path, PatternReplace.replace(PATTERN, names));
+    }
+
+    /**
+     * Compresses every file in this cache that the policy considers cold. Compressed files
+     * are restored transparently the next time they are requested.
+     *
+     * @return Number of bytes reclaimed
+     */
+    public long sweepCold(ColdTierPolicy policy) throws IOException {
+        if (!Files.isDirectory(path))
+            return 0;
+        long now = System.currentTimeMillis();
+        AtomicLong saved = new AtomicLong();
+        Files.walkFileTree(path, new SimpleFileVisitor<Path>() {
+            @Override
+            public FileVisitResult preVisitDirectory(Path dir, BasicFileAttributes attrs) {
+                // Such as the trash of the meta_hash sweeper
+                return dir.getFileName().toString().startsWith(".") && !dir.equals(path) ? FileVisitResult.SKIP_SUBTREE : FileVisitResult.CONTINUE;
+            }
+
+            @Override
+            public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) throws IOException {
+                String name = file.getFileName().toString();
+                // Skip our own sidecars, temp files and anything already compressed
+                if (!attrs.isRegularFile() || name.startsWith(".") || name.endsWith(".tmp") || name.endsWith(ColdStorage.SUFFIX))
+                    return FileVisitResult.CONTINUE;
+                if (policy.isCold(file, attrs.size(), ColdStorage.getLastAccess(attrs), now))
+                    saved.addAndGet(ColdStorage.compress(file, now));
+                return FileVisitResult.CONTINUE;
+            }
+        });
+        return saved.get();
+    }
+
+    /**
+     * Records that a file of this cache was used without going through the cache, such as one remembered
+     * by a {@link FileManifest}, so {@link #sweepCold(ColdTierPolicy)} doesn't consider it cold.
+     */
+    public void touch(File file) {
+        ColdStorage.touch(file.toPath());
     }
 
     private static <K,V> Entry<K,V> entry(K key, V value) {
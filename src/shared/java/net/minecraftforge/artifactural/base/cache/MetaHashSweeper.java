@@ -0,0 +1,237 @@
+/*
+ * Artifactural
+ * Copyright (c) 2018-2021.
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation version 2.1
+ * of the License.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+
+package net.minecraftforge.artifactural.base.cache;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.NotDirectoryException;
+import java.nio.file.Path;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.nio.file.attribute.FileTime;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.regex.Pattern;
+
+/**
+ * Deletes the {@code [meta_hash]} variant directories of a {@link LocatedArtifactCache} that are no longer used,
+ * which otherwise pile up every time an artifact's metadata or transformer configuration changes.
+ *
+ * A variant is live while any process using the cache asks for it. Every process marks the variants it uses by
+ * touching their directory, at least once per quarter of the grace period. A variant whose directory hasn't been
+ * touched for the whole grace period is moved to a trash directory, so it disappears from the cache in a single
+ * atomic rename, and is deleted from there one grace period later. Files already open by readers stay readable on
+ * file systems that allow it, and anything that asks for the variant again in the meantime simply regenerates it.
+ * Entries of the variant in the cache's {@link PackStore}, if it has one, are removed when it is moved to the trash.
+ */
+public class MetaHashSweeper {
+    static final String TRASH = ".trash";
+    private static final Pattern HASH = Pattern.compile("[0-9a-f]{40}");
+
+    private final Path root;
+    private final long grace;
+    private final Map<Path, Long> live = new ConcurrentHashMap<>();
+    private final AtomicLong reclaimed = new AtomicLong();
+    private volatile PackStore pack;
+    private ScheduledExecutorService executor;
+
+    /**
+     * @param root Root directory of the cache
+     * @param grace How long a variant must go unused before it is collected, should be much longer than a build.
+     */
+    public MetaHashSweeper(File root, long grace, TimeUnit unit) {
+        this(root.toPath(), grace, unit);
+    }
+
+    public MetaHashSweeper(Path root, long grace, TimeUnit unit) {
+        if (grace <= 0)
+            throw new IllegalArgumentException("Grace period must be positive: " + grace);
+        this.root = root;
+        this.grace = unit.toMillis(grace);
+    }
+
+    /**
+     * Also removes the entries of collected variants from {@code pack}, whose keys are their paths relative to the root.
+     */
+    void setPack(PackStore pack) {
+        this.pack = pack;
+    }
+
+    /**
+     * Marks a variant directory as in use by this process, creating it if needed, as a variant stored only in the pack has no files of its own.
+     */
+    public void markLive(File variant) {
+        markLive(variant.toPath());
+    }
+
+    public void markLive(Path variant) {
+        long now = System.currentTimeMillis();
+        Long last = live.get(variant);
+        if (last != null && now - last < grace / 4)
+            return;
+        live.put(variant, now);
+        try {
+            Files.createDirectories(variant);
+            Files.setLastModifiedTime(variant, FileTime.fromMillis(now));
+        } catch (IOException e) {
+            // Swept at the same time, the next mark recreates it
+            live.remove(variant);
+        }
+    }
+
+    /**
+     * @return Total bytes deleted by this sweeper so far
+     */
+    public long getReclaimed() {
+        return reclaimed.get();
+    }
+
+    /**
+     * Sweeps every {@code interval} on a background daemon thread, until {@link #stop()} is called.
+     */
+    public synchronized void start(long interval, TimeUnit unit) {
+        if (executor != null)
+            throw new IllegalStateException("Already started");
+        executor = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread thread = new Thread(r, "Artifactural Meta Hash Sweeper");
+            thread.setDaemon(true);
+            thread.setPriority(Thread.MIN_PRIORITY);
+            return thread;
+        });
+        executor.scheduleWithFixedDelay(() -> {
+            try {
+                sweep();
+            } catch (IOException e) {
+                // Try again next time
+            }
+        }, interval, interval, unit);
+    }
+
+    public synchronized void stop() {
+        if (executor != null) {
+            executor.shutdownNow();
+            executor = null;
+        }
+    }
+
+    /**
+     * Moves unused variants to the trash, and deletes trash older than the grace period.
+     *
+     * @return Number of bytes deleted by this sweep
+     */
+    public long sweep() throws IOException {
+        long now = System.currentTimeMillis();
+        Path trash = root.resolve(TRASH);
+        long deleted = 0;
+
+        // Empty the trash first, so a variant always spends a full grace period in it
+        if (Files.isDirectory(trash)) {
+            for (Path dir : list(trash, true)) {
+                if (now - lastModified(dir) >= grace)
+                    deleted += delete(dir);
+            }
+        }
+
+        for (Path group : list(root, false)) {
+            for (Path name : list(group, false)) {
+                for (Path variant : list(name, false)) {
+                    if (!HASH.matcher(variant.getFileName().toString()).matches() || live.containsKey(variant))
+                        continue;
+                    if (now - lastModified(variant) < grace)
+                        continue;
+                    Files.createDirectories(trash);
+                    Path target = trash.resolve(variant.getFileName() + "-" + UUID.randomUUID());
+                    try {
+                        Files.move(variant, target, StandardCopyOption.ATOMIC_MOVE);
+                        // Starts the second half of the grace period
+                        Files.setLastModifiedTime(target, FileTime.fromMillis(now));
+                    } catch (IOException e) {
+                        // Another process swept it, or something is using it on a platform that locks open files
+                        continue;
+                    }
+                    PackStore pack = this.pack;
+                    if (pack != null)
+                        pack.removeAll(group.getFileName() + "/" + name.getFileName() + "/" + variant.getFileName() + "/");
+                }
+            }
+        }
+
+        reclaimed.addAndGet(deleted);
+        return deleted;
+    }
+
+    private static List<Path> list(Path dir, boolean hidden) throws IOException {
+        List<Path> ret = new ArrayList<>();
+        try (DirectoryStream<Path> stream = Files.newDirectoryStream(dir, p -> Files.isDirectory(p) && (hidden || !p.getFileName().toString().startsWith(".")))) {
+            for (Path path : stream)
+                ret.add(path);
+        } catch (NoSuchFileException | NotDirectoryException e) {
+            // Swept or never created
+        }
+        return ret;
+    }
+
+    private static long lastModified(Path path) {
+        try {
+            return Files.getLastModifiedTime(path).toMillis();
+        } catch (IOException e) {
+            return 0;
+        }
+    }
+
+    private static long delete(Path dir) throws IOException {
+        AtomicLong size = new AtomicLong();
+        Files.walkFileTree(dir, new SimpleFileVisitor<Path>() {
+            @Override
+            public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) throws IOException {
+                size.addAndGet(attrs.size());
+                Files.delete(file);
+                return FileVisitResult.CONTINUE;
+            }
+
+            @Override
+            public FileVisitResult postVisitDirectory(Path d, IOException exc) throws IOException {
+                if (exc != null)
+                    throw exc;
+                Files.delete(d);
+                return FileVisitResult.CONTINUE;
+            }
+        });
+        return size.get();
+    }
+
+    @Override
+    public String toString() {
+        return "MetaHashSweeper(" + root + ", live=" + live.size() + ", reclaimed=" + reclaimed.get() + ")";
+    }
+
+}
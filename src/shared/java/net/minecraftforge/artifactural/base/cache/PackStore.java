@@ -0,0 +1,761 @@
+/*
+ * Artifactural
+ * Copyright (c) 2018-2021.
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation version 2.1
+ * of the License.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+
+package net.minecraftforge.artifactural.base.cache;
+
+import java.io.Closeable;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.nio.file.attribute.FileTime;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Objects;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.zip.CRC32;
+
+/**
+ * Stores many small entries in a single append-only pack file instead of one file each, so millions of POMs,
+ * checksums and metadata files don't cost millions of inodes and directory entries.
+ *
+ * Entries are records appended to {@code data.pack}, found through {@code data.idx}, a memory-mapped hash table of
+ * key hashes to record offsets, so a lookup is a few memory reads and one read of the record. Replacing or removing
+ * an entry appends a new record, the old one becomes dead space which {@link #compact()} reclaims by rewriting the
+ * pack with only the live records, either on demand or in the background with {@link #start(long, TimeUnit)}.
+ *
+ * Several processes can share a store. Appends are serialized by a file lock, and each record carries a checksum, so
+ * records torn by a crash are found and cut off before the next append, and records damaged later are read as missing.
+ * A damaged record found while indexing, which is followed by others, drops its key from the index instead.
+ * Readers only lock when the pack changed since they last looked, to catch up with what other processes did since.
+ *
+ * Formats, all numbers big endian:
+ * <pre>
+ *   data.pack: [magic int] [version int] [generation long] ([key length int] [data length int, -1 to remove] [crc32 int] [key] [data])*
+ *   data.idx:  [magic int] [capacity int] [generation long] [indexed pack length long] [used slots long] [live entries long] [dead bytes long]
+ *              ([key hash long] [record offset long, 0 if empty, -1 if removed])*
+ * </pre>
+ */
+public class PackStore implements Closeable {
+    static final String DIRECTORY = ".pack";
+    private static final int PACK_MAGIC = 0x41504B31;
+    private static final int INDEX_MAGIC = 0x41504931;
+    private static final int VERSION = 1;
+    private static final int PACK_HEADER = 16;
+    private static final int RECORD_HEADER = 12;
+    private static final int INDEX_HEADER = 48;
+    private static final int SLOT = 16;
+    private static final int MIN_CAPACITY = 1024;
+    private static final int MAX_KEY = 0xFFFF;
+    private static final long EXTRACTED_AGE = TimeUnit.DAYS.toMillis(1);
+
+    private final Path dir;
+    private final Path packFile;
+    private final Path indexFile;
+    private final Path extracted;
+    private final FileChannel lockChannel;
+    // Readers hold the read lock while using the current channel and mapping, swapping them takes the write lock
+    private final ReadWriteLock swap = new ReentrantReadWriteLock();
+    private final Object appendLock = new Object();
+    private volatile State state;
+    private ScheduledExecutorService executor;
+
+    public PackStore(Path dir) throws IOException {
+        this.dir = dir;
+        this.packFile = dir.resolve("data.pack");
+        this.indexFile = dir.resolve("data.idx");
+        this.extracted = dir.resolve("extracted");
+        Files.createDirectories(dir);
+        this.lockChannel = FileChannel.open(dir.resolve("pack.lock"), StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        withFileLock(() -> {
+            State current = open();
+            catchUp(current);
+            return null;
+        });
+    }
+
+    /**
+     * @return The data stored for {@code key}, or null if there is none
+     */
+    public byte[] get(String key) throws IOException {
+        byte[] keyBytes = key.getBytes(StandardCharsets.UTF_8);
+        // Another process may have added, replaced or removed it, or compacted the pack, since we last looked
+        if (isBehind())
+            withFileLock(() -> catchUp(state));
+        return read(keyBytes, hash(keyBytes));
+    }
+
+    public boolean contains(String key) throws IOException {
+        return get(key) != null;
+    }
+
+    /**
+     * Stores {@code data} under {@code key}, replacing anything already stored under it.
+     */
+    public void put(String key, byte[] data) throws IOException {
+        append(key, data);
+    }
+
+    /**
+     * @return True if there was an entry to remove
+     */
+    public boolean remove(String key) throws IOException {
+        return append(key, null);
+    }
+
+    /**
+     * Removes every entry whose key starts with {@code prefix}.
+     *
+     * @return Number of entries removed
+     */
+    public int removeAll(String prefix) throws IOException {
+        return withFileLock(() -> {
+            catchUp(state);
+            List<byte[]> keys = new ArrayList<>();
+            State current = state;
+            byte[] prefixBytes = prefix.getBytes(StandardCharsets.UTF_8);
+            for (int x = 0; x < current.capacity; x++) {
+                long offset = current.index.getLong(INDEX_HEADER + x * SLOT + 8);
+                if (offset <= 0)
+                    continue;
+                int length = readFully(current.pack, offset, RECORD_HEADER).getInt(0);
+                if (length < prefixBytes.length)
+                    continue;
+                byte[] key = readFully(current.pack, offset + RECORD_HEADER, length).array();
+                if (ByteBuffer.wrap(key, 0, prefixBytes.length).equals(ByteBuffer.wrap(prefixBytes)))
+                    keys.add(key);
+            }
+            for (byte[] key : keys)
+                appendLocked(key, hash(key), null);
+            return keys.size();
+        });
+    }
+
+    /**
+     * Writes an entry out to a file of its own, for consumers that need a file. Extracted files are only a copy,
+     * and are deleted by the background maintenance once they haven't been asked for in a day.
+     *
+     * @param name File name to give the copy
+     * @return The file, or null if there is no such entry
+     */
+    public Path extract(String key, String name) throws IOException {
+        byte[] data = get(key);
+        if (data == null)
+            return null;
+        Path target = extracted.resolve(Long.toHexString(hash(key.getBytes(StandardCharsets.UTF_8)))).resolve(name);
+        if (Files.isRegularFile(target) && Files.size(target) == data.length && Arrays.equals(Files.readAllBytes(target), data)) {
+            // Keeps it from being purged while it is handed out, only once in a while so hits don't all write metadata
+            long now = System.currentTimeMillis();
+            if (now - Files.getLastModifiedTime(target).toMillis() > EXTRACTED_AGE / 4)
+                Files.setLastModifiedTime(target, FileTime.fromMillis(now));
+            return target;
+        }
+        Files.createDirectories(target.getParent());
+        Path tmp = ArtifactCacheBase.createTempFile(target, ".tmp");
+        try {
+            Files.write(tmp, data);
+            Files.move(tmp, target, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } finally {
+            Files.deleteIfExists(tmp);
+        }
+        return target;
+    }
+
+    public long getEntryCount() {
+        return withState(s -> s.index.getLong(32));
+    }
+
+    /**
+     * @return Bytes of the pack taken up by replaced or removed entries, which {@link #compact()} would reclaim
+     */
+    public long getDeadBytes() {
+        return withState(s -> s.index.getLong(40));
+    }
+
+    /**
+     * Rewrites the pack with only its live entries.
+     *
+     * @return Number of bytes reclaimed
+     */
+    public long compact() throws IOException {
+        return withFileLock(() -> {
+            catchUp(state);
+            // Read after catching up, which replaces the state if another process rewrote the files
+            State current = state;
+            long dead = current.index.getLong(40);
+            if (dead == 0)
+                return 0L;
+            long before = current.pack.size();
+
+            long generation = current.generation + 1;
+            long live = current.index.getLong(32);
+            int capacity = capacityFor(live);
+            Path packTmp = ArtifactCacheBase.createTempFile(packFile, ".tmp");
+            Path indexTmp = ArtifactCacheBase.createTempFile(indexFile, ".tmp");
+            try {
+                try (FileChannel out = FileChannel.open(packTmp, StandardOpenOption.WRITE, StandardOpenOption.READ);
+                     FileChannel idx = FileChannel.open(indexTmp, StandardOpenOption.WRITE, StandardOpenOption.READ)) {
+                    writeFully(out, packHeader(generation), 0);
+                    MappedByteBuffer index = createIndex(idx, capacity, generation);
+                    long position = PACK_HEADER;
+                    for (int x = 0; x < current.capacity; x++) {
+                        long offset = current.index.getLong(INDEX_HEADER + x * SLOT + 8);
+                        if (offset <= 0)
+                            continue;
+                        ByteBuffer header = readFully(current.pack, offset, RECORD_HEADER);
+                        int length = RECORD_HEADER + header.getInt(0) + header.getInt(4);
+                        ByteBuffer record = readFully(current.pack, offset, length);
+                        writeFully(out, record, position);
+                        insertSlot(index, capacity, current.index.getLong(INDEX_HEADER + x * SLOT), position);
+                        position += length;
+                    }
+                    index.putLong(16, position);
+                    index.putLong(24, live);
+                    index.putLong(32, live);
+                    index.putLong(40, 0);
+                    index.force();
+                }
+                // If we die between the two, the generations won't match and the index is rebuilt from the new pack
+                Files.move(packTmp, packFile, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+                Files.move(indexTmp, indexFile, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            } finally {
+                Files.deleteIfExists(packTmp);
+                Files.deleteIfExists(indexTmp);
+            }
+            State next = open();
+            return before - next.pack.size();
+        });
+    }
+
+    /**
+     * Compacts the pack every {@code interval} on a background daemon thread once at least half of it is dead,
+     * and deletes old extracted files, until {@link #stop()} is called.
+     */
+    public synchronized void start(long interval, TimeUnit unit) {
+        if (executor != null)
+            throw new IllegalStateException("Already started");
+        executor = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread thread = new Thread(r, "Artifactural Pack Maintenance");
+            thread.setDaemon(true);
+            thread.setPriority(Thread.MIN_PRIORITY);
+            return thread;
+        });
+        executor.scheduleWithFixedDelay(() -> {
+            try {
+                long size = withState(s -> {
+                    try {
+                        return s.pack.size();
+                    } catch (IOException e) {
+                        return 0L;
+                    }
+                });
+                if (getDeadBytes() * 2 >= size - PACK_HEADER && getDeadBytes() > 0)
+                    compact();
+                purgeExtracted(System.currentTimeMillis() - EXTRACTED_AGE);
+            } catch (IOException e) {
+                // Try again next time
+            }
+        }, interval, interval, unit);
+    }
+
+    public synchronized boolean isStarted() {
+        return executor != null;
+    }
+
+    public synchronized void stop() {
+        if (executor != null) {
+            executor.shutdownNow();
+            executor = null;
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        stop();
+        swap.writeLock().lock();
+        try {
+            if (state != null)
+                state.pack.close();
+            state = null;
+            lockChannel.close();
+        } finally {
+            swap.writeLock().unlock();
+        }
+    }
+
+    private byte[] read(byte[] key, long hash) throws IOException {
+        swap.readLock().lock();
+        try {
+            State current = state;
+            if (current == null)
+                throw new IOException("Pack store " + dir + " is closed");
+            long offset = find(current, key, hash);
+            if (offset <= 0)
+                return null;
+            ByteBuffer header = readFully(current.pack, offset, RECORD_HEADER);
+            byte[] data = readFully(current.pack, offset + RECORD_HEADER + key.length, header.getInt(4)).array();
+            // Damaged since it was written, treated as missing so it is generated and appended again
+            return crc(key, data) == header.getInt(8) ? data : null;
+        } finally {
+            swap.readLock().unlock();
+        }
+    }
+
+    private boolean isBehind() throws IOException {
+        return withState(s -> {
+            try {
+                return s.pack.size() != s.index.getLong(16) || !Objects.equals(s.packKey, fileKey(packFile)) || !Objects.equals(s.indexKey, fileKey(indexFile));
+            } catch (IOException e) {
+                return true;
+            }
+        });
+    }
+
+    private boolean append(String key, byte[] data) throws IOException {
+        byte[] keyBytes = key.getBytes(StandardCharsets.UTF_8);
+        if (keyBytes.length == 0 || keyBytes.length > MAX_KEY)
+            throw new IllegalArgumentException("Invalid key length " + keyBytes.length + ": " + key);
+        return withFileLock(() -> {
+            catchUp(state);
+            return appendLocked(keyBytes, hash(keyBytes), data);
+        });
+    }
+
+    /**
+     * Appends a record to the pack, and points the index at it. Called with the file lock held, and caught up.
+     *
+     * @return False if asked to remove something that isn't there
+     */
+    private boolean appendLocked(byte[] keyBytes, long hash, byte[] data) throws IOException {
+        State current = state;
+        if (data == null && find(current, keyBytes, hash) <= 0)
+            return false;
+
+        int dataLength = data == null ? -1 : data.length;
+        ByteBuffer record = ByteBuffer.allocate(RECORD_HEADER + keyBytes.length + Math.max(dataLength, 0));
+        record.putInt(keyBytes.length).putInt(dataLength).putInt(crc(keyBytes, data)).put(keyBytes);
+        if (data != null)
+            record.put(data);
+        record.flip();
+        long offset = current.pack.size();
+        writeFully(current.pack, record, offset);
+        current = index(current, keyBytes, hash, offset, record.limit(), data == null);
+        current.index.putLong(16, offset + record.limit());
+        return true;
+    }
+
+    private long find(State current, byte[] key, long hash) throws IOException {
+        int mask = current.capacity - 1;
+        for (int x = 0, slot = (int)hash & mask; x < current.capacity; x++, slot = (slot + 1) & mask) {
+            int pos = INDEX_HEADER + slot * SLOT;
+            long offset = current.index.getLong(pos + 8);
+            if (offset == 0)
+                return -1;
+            if (offset > 0 && current.index.getLong(pos) == hash && keyMatches(current.pack, offset, key))
+                return offset;
+        }
+        return -1;
+    }
+
+    /**
+     * Points the index at a record just appended, or read while catching up.
+     *
+     * @return The state, which is new if the index had to grow
+     */
+    private State index(State current, byte[] key, long hash, long offset, int length, boolean remove) throws IOException {
+        MappedByteBuffer index = current.index;
+        int mask = current.capacity - 1;
+        int free = -1;
+        for (int x = 0, slot = (int)hash & mask; x < current.capacity; x++, slot = (slot + 1) & mask) {
+            int pos = INDEX_HEADER + slot * SLOT;
+            long existing = index.getLong(pos + 8);
+            if (existing == 0) {
+                if (free == -1)
+                    free = pos;
+                break;
+            }
+            if (existing < 0) {
+                if (free == -1)
+                    free = pos;
+                continue;
+            }
+            if (index.getLong(pos) == hash && keyMatches(current.pack, existing, key)) {
+                ByteBuffer header = readFully(current.pack, existing, RECORD_HEADER);
+                long dead = RECORD_HEADER + header.getInt(0) + header.getInt(4);
+                if (remove) {
+                    index.putLong(pos + 8, -1);
+                    index.putLong(32, index.getLong(32) - 1);
+                    dead += length;
+                } else {
+                    index.putLong(pos + 8, offset);
+                }
+                index.putLong(40, index.getLong(40) + dead);
+                return current;
+            }
+        }
+        if (remove) {
+            // Removing something that isn't there, the tombstone itself is dead weight
+            index.putLong(40, index.getLong(40) + length);
+            return current;
+        }
+        if (free == -1 || index.getLong(24) + 1 > current.capacity * 6L / 10) {
+            current = grow(current);
+            insertSlot(current.index, current.capacity, hash, offset);
+            current.index.putLong(24, current.index.getLong(24) + 1);
+        } else {
+            boolean reused = index.getLong(free + 8) < 0;
+            index.putLong(free, hash);
+            index.putLong(free + 8, offset);
+            if (!reused)
+                index.putLong(24, index.getLong(24) + 1);
+        }
+        current.index.putLong(32, current.index.getLong(32) + 1);
+        return current;
+    }
+
+    private static void insertSlot(MappedByteBuffer index, int capacity, long hash, long offset) {
+        int mask = capacity - 1;
+        for (int slot = (int)hash & mask; ; slot = (slot + 1) & mask) {
+            int pos = INDEX_HEADER + slot * SLOT;
+            if (index.getLong(pos + 8) == 0) {
+                index.putLong(pos, hash);
+                index.putLong(pos + 8, offset);
+                return;
+            }
+        }
+    }
+
+    /**
+     * Replaces the index with one twice the size, dropping removed slots.
+     */
+    private State grow(State current) throws IOException {
+        int capacity = Math.max(capacityFor(current.index.getLong(32) + 1), current.capacity * 2);
+        writeIndex(capacity, current.generation, current);
+        return open();
+    }
+
+    /**
+     * Replaces the index file, with the live slots of {@code from} if given, otherwise empty.
+     * Always a new file moved into place, other processes may have the old one mapped, and truncating it under them would crash them.
+     */
+    private void writeIndex(int capacity, long generation, State from) throws IOException {
+        Path tmp = ArtifactCacheBase.createTempFile(indexFile, ".tmp");
+        try {
+            try (FileChannel idx = FileChannel.open(tmp, StandardOpenOption.WRITE, StandardOpenOption.READ)) {
+                MappedByteBuffer index = createIndex(idx, capacity, generation);
+                if (from == null) {
+                    index.putLong(16, PACK_HEADER);
+                } else {
+                    long live = from.index.getLong(32);
+                    for (int x = 0; x < from.capacity; x++) {
+                        int pos = INDEX_HEADER + x * SLOT;
+                        long offset = from.index.getLong(pos + 8);
+                        if (offset > 0)
+                            insertSlot(index, capacity, from.index.getLong(pos), offset);
+                    }
+                    index.putLong(16, from.index.getLong(16));
+                    index.putLong(24, live);
+                    index.putLong(32, live);
+                    index.putLong(40, from.index.getLong(40));
+                }
+                index.force();
+            }
+            Files.move(tmp, indexFile, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } finally {
+            Files.deleteIfExists(tmp);
+        }
+    }
+
+    /**
+     * Brings the index up to date with the pack, reopening either if another process replaced them.
+     * Called with the file lock held.
+     */
+    private Void catchUp(State current) throws IOException {
+        if (current == null || !Objects.equals(current.packKey, fileKey(packFile)) || !Objects.equals(current.indexKey, fileKey(indexFile)))
+            current = open();
+
+        long size = current.pack.size();
+        long covered = current.index.getLong(16);
+        if (current.index.getInt(0) != INDEX_MAGIC || current.index.getLong(8) != current.generation || covered > size || covered < PACK_HEADER) {
+            // Start over and index the whole pack
+            writeIndex(MIN_CAPACITY, current.generation, null);
+            current = open();
+            covered = current.index.getLong(16);
+        }
+
+        long position = covered;
+        while (position < size) {
+            long length = recordLength(current.pack, position, size);
+            ByteBuffer header = length < 0 ? null : readFully(current.pack, position, RECORD_HEADER);
+            byte[] key = length < 0 ? null : readFully(current.pack, position + RECORD_HEADER, header.getInt(0)).array();
+            boolean valid = length >= 0 && isIntact(current.pack, position, header, key);
+            if (length < 0 || (!valid && position + length == size)) {
+                // Torn by a crashed writer, only ever the last record as appends are serialized
+                current.pack.truncate(position);
+                break;
+            }
+            // A damaged record with others after it, which may be from other processes, is skipped. Its key, if that
+            // is what was damaged, is dropped rather than left pointing at an older record the damaged one replaced.
+            current = index(current, key, hash(key), position, (int)length, !valid || header.getInt(4) < 0);
+            position += length;
+        }
+        current.index.putLong(16, position);
+        return null;
+    }
+
+    /**
+     * Opens the pack and index currently on disk, creating them if needed, and makes them the current state.
+     */
+    private State open() throws IOException {
+        FileChannel pack = FileChannel.open(packFile, StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        long generation;
+        if (pack.size() < PACK_HEADER) {
+            generation = System.currentTimeMillis();
+            pack.truncate(0);
+            writeFully(pack, packHeader(generation), 0);
+        } else {
+            ByteBuffer header = readFully(pack, 0, PACK_HEADER);
+            if (header.getInt(0) != PACK_MAGIC || header.getInt(4) != VERSION) {
+                pack.close();
+                throw new IOException("Not a pack file, or from a newer version: " + packFile);
+            }
+            generation = header.getLong(8);
+        }
+
+        if (!isValidIndex())
+            writeIndex(MIN_CAPACITY, generation, null);
+        MappedByteBuffer index;
+        try (FileChannel idx = FileChannel.open(indexFile, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+            int capacity = readFully(idx, 4, 4).getInt(0);
+            index = idx.map(FileChannel.MapMode.READ_WRITE, 0, INDEX_HEADER + (long)capacity * SLOT);
+        }
+        State next = new State(pack, fileKey(packFile), index, fileKey(indexFile), index.getInt(4), generation);
+
+        swap.writeLock().lock();
+        try {
+            State previous = state;
+            state = next;
+            if (previous != null && previous.pack != next.pack)
+                previous.pack.close();
+        } finally {
+            swap.writeLock().unlock();
+        }
+        return next;
+    }
+
+    private boolean isValidIndex() throws IOException {
+        if (!Files.exists(indexFile))
+            return false;
+        try (FileChannel idx = FileChannel.open(indexFile, StandardOpenOption.READ)) {
+            if (idx.size() < INDEX_HEADER)
+                return false;
+            ByteBuffer header = readFully(idx, 0, 8);
+            int capacity = header.getInt(4);
+            return header.getInt(0) == INDEX_MAGIC && capacity >= MIN_CAPACITY && Integer.bitCount(capacity) == 1 && idx.size() >= INDEX_HEADER + (long)capacity * SLOT;
+        }
+    }
+
+    private static MappedByteBuffer createIndex(FileChannel channel, int capacity, long generation) throws IOException {
+        MappedByteBuffer index = channel.map(FileChannel.MapMode.READ_WRITE, 0, INDEX_HEADER + (long)capacity * SLOT);
+        index.putInt(0, INDEX_MAGIC);
+        index.putInt(4, capacity);
+        index.putLong(8, generation);
+        return index;
+    }
+
+    private static int capacityFor(long entries) {
+        long needed = Math.max(MIN_CAPACITY, entries * 2);
+        // Slots are addressed with ints, and a mapping can be at most 2GB
+        if (needed > 1 << 26)
+            throw new IllegalStateException("Too many entries in pack: " + entries);
+        return Integer.highestOneBit((int)needed - 1) << 1;
+    }
+
+    /**
+     * @return Length the record at {@code position} declares, or -1 if its header is incomplete, invalid, or declares more than the pack holds
+     */
+    private static long recordLength(FileChannel pack, long position, long size) throws IOException {
+        if (position + RECORD_HEADER > size)
+            return -1;
+        ByteBuffer header = readFully(pack, position, RECORD_HEADER);
+        int keyLength = header.getInt(0);
+        int dataLength = header.getInt(4);
+        if (keyLength <= 0 || keyLength > MAX_KEY || dataLength < -1)
+            return -1;
+        long length = RECORD_HEADER + keyLength + Math.max(dataLength, 0);
+        return position + length > size ? -1 : length;
+    }
+
+    /**
+     * @return True if the checksum of the record at {@code position} matches its contents
+     */
+    private static boolean isIntact(FileChannel pack, long position, ByteBuffer header, byte[] key) throws IOException {
+        int dataLength = header.getInt(4);
+        byte[] data = dataLength < 0 ? null : readFully(pack, position + RECORD_HEADER + key.length, dataLength).array();
+        return crc(key, data) == header.getInt(8);
+    }
+
+    private static boolean keyMatches(FileChannel pack, long offset, byte[] key) throws IOException {
+        ByteBuffer header = readFully(pack, offset, RECORD_HEADER);
+        if (header.getInt(0) != key.length)
+            return false;
+        return ByteBuffer.wrap(key).equals(readFully(pack, offset + RECORD_HEADER, key.length));
+    }
+
+    private void purgeExtracted(long before) throws IOException {
+        if (!Files.isDirectory(extracted))
+            return;
+        try (DirectoryStream<Path> dirs = Files.newDirectoryStream(extracted)) {
+            for (Path entry : dirs) {
+                try (DirectoryStream<Path> files = Files.newDirectoryStream(entry)) {
+                    for (Path file : files) {
+                        if (Files.getLastModifiedTime(file).toMillis() < before)
+                            Files.deleteIfExists(file);
+                    }
+                } catch (NoSuchFileException e) {
+                    continue;
+                }
+                try {
+                    Files.deleteIfExists(entry);
+                } catch (IOException e) {
+                    // Not empty
+                }
+            }
+        }
+    }
+
+    private <T> T withFileLock(IOSupplier<T> action) throws IOException {
+        synchronized (appendLock) {
+            FileLock lock = lockChannel.lock();
+            try {
+                return action.get();
+            } finally {
+                lock.release();
+            }
+        }
+    }
+
+    private <T> T withState(java.util.function.Function<State, T> action) {
+        swap.readLock().lock();
+        try {
+            State current = state;
+            if (current == null)
+                throw new IllegalStateException("Pack store " + dir + " is closed");
+            return action.apply(current);
+        } finally {
+            swap.readLock().unlock();
+        }
+    }
+
+    private static ByteBuffer packHeader(long generation) {
+        ByteBuffer buf = ByteBuffer.allocate(PACK_HEADER);
+        buf.putInt(PACK_MAGIC).putInt(VERSION).putLong(generation).flip();
+        return buf;
+    }
+
+    private static ByteBuffer readFully(FileChannel channel, long position, int length) throws IOException {
+        ByteBuffer buf = ByteBuffer.allocate(length);
+        while (buf.hasRemaining()) {
+            if (channel.read(buf, position + buf.position()) == -1)
+                throw new EOFException();
+        }
+        buf.flip();
+        return buf;
+    }
+
+    private static void writeFully(FileChannel channel, ByteBuffer buf, long position) throws IOException {
+        long start = position - buf.position();
+        while (buf.hasRemaining())
+            channel.write(buf, start + buf.position());
+    }
+
+    private static int crc(byte[] key, byte[] data) {
+        CRC32 crc = new CRC32();
+        crc.update(key);
+        if (data != null)
+            crc.update(data);
+        return (int)crc.getValue();
+    }
+
+    // 64 bit FNV-1a, with a final mix so the low bits used for the slot depend on every byte
+    private static long hash(byte[] key) {
+        long hash = 0xcbf29ce484222325L;
+        for (byte b : key) {
+            hash ^= b & 0xFF;
+            hash *= 0x100000001b3L;
+        }
+        hash ^= hash >>> 33;
+        hash *= 0xff51afd7ed558ccdL;
+        hash ^= hash >>> 33;
+        return hash;
+    }
+
+    private static Object fileKey(Path path) {
+        try {
+            return Files.readAttributes(path, BasicFileAttributes.class).fileKey();
+        } catch (IOException e) {
+            return null;
+        }
+    }
+
+    @Override
+    public String toString() {
+        return "PackStore(" + dir + ")";
+    }
+
+    @FunctionalInterface
+    private interface IOSupplier<T> {
+        T get() throws IOException;
+    }
+
+    private static class State {
+        private final FileChannel pack;
+        private final Object packKey;
+        private final MappedByteBuffer index;
+        private final Object indexKey;
+        private final int capacity;
+        private final long generation;
+
+        private State(FileChannel pack, Object packKey, MappedByteBuffer index, Object indexKey, int capacity, long generation) {
+            this.pack = pack;
+            this.packKey = packKey;
+            this.index = index;
+            this.indexKey = indexKey;
+            this.capacity = capacity;
+            this.generation = generation;
+        }
+    }
+
+}
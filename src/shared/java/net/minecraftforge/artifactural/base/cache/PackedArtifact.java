@@ -0,0 +1,225 @@
+/*
+ * Artifactural
+ * Copyright (c) 2018-2021.
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation version 2.1
+ * of the License.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+
+package net.minecraftforge.artifactural.base.cache;
+
+import net.minecraftforge.artifactural.api.artifact.Artifact;
+import net.minecraftforge.artifactural.api.artifact.ArtifactIdentifier;
+import net.minecraftforge.artifactural.api.artifact.ArtifactMetadata;
+import net.minecraftforge.artifactural.api.artifact.ArtifactType;
+import net.minecraftforge.artifactural.api.artifact.MissingArtifactException;
+import net.minecraftforge.artifactural.api.cache.ArtifactCache;
+import net.minecraftforge.artifactural.api.transform.ArtifactTransformer;
+import net.minecraftforge.artifactural.base.artifact.StreamableArtifact;
+import net.minecraftforge.artifactural.base.metrics.Metrics;
+import net.minecraftforge.artifactural.base.metrics.TraceRecorder;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.SequenceInputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+/**
+ * Cached artifact that is kept in a {@link PackStore} if it is no larger than the threshold, and in its usual
+ * file otherwise. Which one is only known once it has been generated, so both are checked on every lookup.
+ * Consumers that need a file get a copy extracted from the pack.
+ * Generation takes the same {@link CacheLock} an unpacked entry would, on its usual file, so generating one entry never
+ * waits on another, even when its transformer reads one that isn't cached yet.
+ */
+final class PackedArtifact implements Artifact.Cached {
+    private final Artifact artifact;
+    private final PackStore pack;
+    private final long threshold;
+    private final String key;
+    private final Path file;
+
+    PackedArtifact(Artifact artifact, PackStore pack, long threshold, String key, Path file) {
+        this.artifact = artifact;
+        this.pack = pack;
+        this.threshold = threshold;
+        this.key = key;
+        this.file = file;
+    }
+
+    @Override
+    public ArtifactIdentifier getIdentifier() {
+        return artifact.getIdentifier();
+    }
+
+    @Override
+    public ArtifactMetadata getMetadata() {
+        return artifact.getMetadata();
+    }
+
+    @Override
+    public ArtifactType getType() {
+        return artifact.getType();
+    }
+
+    @Override
+    public Artifact withMetadata(ArtifactMetadata metadata) {
+        return artifact.withMetadata(metadata);
+    }
+
+    @Override
+    public Artifact apply(ArtifactTransformer transformer) {
+        return artifact.apply(transformer);
+    }
+
+    @Override
+    public Artifact.Cached cache(ArtifactCache cache) {
+        return artifact.cache(cache);
+    }
+
+    @Override
+    public boolean isPresent() {
+        return artifact.isPresent();
+    }
+
+    @Override
+    public InputStream openStream() throws IOException, MissingArtifactException {
+        InputStream ret = openCached();
+        if (ret != null)
+            return ret;
+        CacheLock lock = CacheLock.acquire(file);
+        try {
+            // Whoever held the lock before us, here or in another process, may have just written it
+            ret = openCached();
+            if (ret != null)
+                return ret;
+            Metrics.get().cacheMiss();
+            TraceRecorder.Span span = TraceRecorder.begin("cache", file.getFileName().toString());
+            try {
+                return populate();
+            } finally {
+                span.close();
+            }
+        } finally {
+            lock.close();
+        }
+    }
+
+    private InputStream openCached() throws IOException {
+        byte[] data = pack.get(key);
+        if (data != null) {
+            Metrics.get().cacheHit();
+            return new ByteArrayInputStream(data);
+        }
+        if (ColdStorage.restore(file) && CacheIntegrity.isCheckable(file)) {
+            Metrics.get().cacheHit();
+            return CacheIntegrity.open(file, this::repair);
+        }
+        return null;
+    }
+
+    /**
+     * Regenerates the file that was quarantined while it was streamed, unless another reader already has.
+     */
+    private void repair() throws IOException {
+        CacheLock lock = CacheLock.acquire(file);
+        try {
+            if (!ColdStorage.restore(file) || !CacheIntegrity.isCheckable(file))
+                populate().close();
+        } finally {
+            lock.close();
+        }
+    }
+
+    private InputStream populate() throws IOException {
+        InputStream in = artifact.openStream();
+        try {
+            // Read one byte past the threshold, to tell a file exactly at the threshold from a larger one
+            ByteArrayOutputStream head = new ByteArrayOutputStream((int)Math.min(threshold + 1, 8192));
+            byte[] buf = new byte[8192];
+            int read;
+            while (head.size() <= threshold && (read = in.read(buf, 0, (int)Math.min(buf.length, threshold + 1 - head.size()))) != -1)
+                head.write(buf, 0, read);
+            byte[] data = head.toByteArray();
+            if (data.length <= threshold) {
+                in.close();
+                pack.put(key, data);
+                Metrics.get().bytesWritten(data.length);
+                return new ByteArrayInputStream(data);
+            }
+            ArtifactCacheBase.write(file, new SequenceInputStream(new ByteArrayInputStream(data), in));
+            return CacheIntegrity.open(file, this::repair);
+        } catch (IOException | RuntimeException e) {
+            in.close();
+            throw e;
+        }
+    }
+
+    @Override
+    public InputStream openRange(long offset, long length) throws IOException, MissingArtifactException {
+        byte[] data = pack.get(key);
+        if (data == null) {
+            openStream().close();
+            data = pack.get(key);
+        }
+        if (data != null) {
+            if (offset < 0 || length < 0)
+                throw new IllegalArgumentException("Invalid range: " + offset + ", " + length);
+            int start = (int)Math.min(offset, data.length);
+            return new ByteArrayInputStream(data, start, (int)Math.min(length, data.length - start));
+        }
+        return StreamableArtifact.ofPath(getIdentifier(), getType(), file).openRange(offset, length);
+    }
+
+    @Override
+    public File asFile() throws IOException, MissingArtifactException {
+        return asPath().toFile();
+    }
+
+    @Override
+    public Path asPath() throws IOException, MissingArtifactException {
+        Path extracted = pack.extract(key, file.getFileName().toString());
+        if (extracted != null)
+            return extracted;
+        if (ColdStorage.restore(file) && CacheIntegrity.verify(file)) {
+            Metrics.get().cacheHit();
+            return file;
+        }
+        openStream().close();
+        extracted = pack.extract(key, file.getFileName().toString());
+        return extracted != null ? extracted : file;
+    }
+
+    @Override
+    public File getFileLocation() throws MissingArtifactException {
+        return file.toFile();
+    }
+
+    /**
+     * Where the artifact is stored if it is too large for the pack, small ones are only found through {@link #asPath()}.
+     */
+    @Override
+    public Path getPathLocation() throws MissingArtifactException {
+        return file;
+    }
+
+    @Override
+    public String toString() {
+        return "packed(" + artifact + ", " + key + ")";
+    }
+
+}
@@ -0,0 +1,244 @@
+/*
+ * Artifactural
+ * Copyright (c) 2018-2021.
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation version 2.1
+ * of the License.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+
+package net.minecraftforge.artifactural.base.cache;
+
+import net.minecraftforge.artifactural.api.artifact.Artifact;
+import net.minecraftforge.artifactural.base.util.BlockingExecutors;
+import net.minecraftforge.artifactural.base.util.HashFunction;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.net.URI;
+import java.net.URISyntaxException;
+import java.net.URL;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Cache that shares generated artifacts between machines through an HTTP content store, with a
+ * {@link LocatedArtifactCache} on local disk in front of it. Entries use the same relative paths as
+ * the local cache, so the identifier and metadata hash pick the entry.
+ *
+ * An artifact missing locally is downloaded if the store has it, and generated locally otherwise,
+ * after which it is uploaded in the background for the next machine. Downloads are checked against the
+ * SHA-256 the store reports in an {@value #DIGEST_HEADER} header, if it reports one, ETags are left alone as most
+ * stores use something else for them. Uploads carry their SHA-256 in the same header, and use {@code If-None-Match: *}
+ * so an entry another machine already uploaded is never replaced.
+ *
+ * The store is only ever an optimization. Any failure to talk to it falls back to local generation,
+ * and after {@value #FAILURE_THRESHOLD} failures in a row it is left alone for a cool down period so a
+ * dead store doesn't cost a timeout per artifact. A minimal store for testing is in the remoteCacheTest source set.
+ */
+public class RemoteArtifactCache extends ArtifactCacheBase {
+    static final String DIGEST_HEADER = "X-Checksum-Sha256";
+    private static final int FAILURE_THRESHOLD = 3;
+    private static final HashFunction DIGEST = HashFunction.SHA256;
+
+    private final URI base;
+    private final LocatedArtifactCache local;
+    private final AtomicInteger failures = new AtomicInteger();
+    private final AtomicLong disabledUntil = new AtomicLong();
+    private final ExecutorService uploader;
+    private int connectTimeout = 2000;
+    private int readTimeout = 30000;
+    private long coolDown = TimeUnit.MINUTES.toMillis(1);
+    private boolean push = true;
+
+    /**
+     * @param base URL of the store, every entry is below it
+     * @param local Root directory of the local disk tier
+     */
+    public RemoteArtifactCache(URI base, File local) {
+        this(base, local.toPath());
+    }
+
+    public RemoteArtifactCache(URI base, Path local) {
+        this.base = base.getPath().endsWith("/") ? base : URI.create(base + "/");
+        this.local = new LocatedArtifactCache(local);
+        this.uploader = BlockingExecutors.create("Artifactural Remote Cache Upload", 2);
+    }
+
+    public RemoteArtifactCache setTimeouts(int connect, int read, TimeUnit unit) {
+        this.connectTimeout = (int)unit.toMillis(connect);
+        this.readTimeout = (int)unit.toMillis(read);
+        return this;
+    }
+
+    /**
+     * How long to leave the store alone after it fails repeatedly.
+     */
+    public RemoteArtifactCache setCoolDown(long time, TimeUnit unit) {
+        this.coolDown = unit.toMillis(time);
+        return this;
+    }
+
+    /**
+     * Whether artifacts generated locally are uploaded, turn off for machines that should only read from the store.
+     */
+    public RemoteArtifactCache setPush(boolean push) {
+        this.push = push;
+        return this;
+    }
+
+    public LocatedArtifactCache getLocal() {
+        return local;
+    }
+
+    @Override
+    public Artifact.Cached store(Artifact artifact) {
+        return doStore(local.getLocation(artifact), artifact);
+    }
+
+    @Override
+    void populate(Path path, Artifact artifact) throws IOException {
+        URL url = isAvailable() ? getUrl(artifact) : null;
+        if (url != null && download(url, path))
+            return;
+        super.populate(path, artifact);
+        if (url != null && push)
+            uploader.execute(() -> upload(url, path));
+    }
+
+    private URL getUrl(Artifact artifact) {
+        try {
+            URI relative = new URI(null, null, LocatedArtifactCache.getRelativePath(artifact), null);
+            return base.resolve(relative).toURL();
+        } catch (URISyntaxException | IOException e) {
+            return null;
+        }
+    }
+
+    /**
+     * @return True if the store had the artifact and it was written to {@code path}
+     */
+    private boolean download(URL url, Path path) {
+        HttpURLConnection con = null;
+        try {
+            con = open(url, "GET");
+            int code = con.getResponseCode();
+            if (code == HttpURLConnection.HTTP_NOT_FOUND) {
+                succeeded();
+                return false;
+            }
+            if (code != HttpURLConnection.HTTP_OK)
+                throw new IOException("Unexpected response " + code + " for " + url);
+
+            String expected = con.getHeaderField(DIGEST_HEADER);
+            Path tmp = createTempFile(path, ".download");
+            try {
+                HashFunction.Instance hash = DIGEST.create();
+                try (InputStream in = con.getInputStream();
+                     OutputStream out = Files.newOutputStream(tmp)) {
+                    byte[] buf = new byte[8192];
+                    int read;
+                    while ((read = in.read(buf)) != -1) {
+                        out.write(buf, 0, read);
+                        hash.update(buf, 0, read);
+                    }
+                }
+                if (expected != null && !expected.equalsIgnoreCase(hash.finish()))
+                    throw new IOException("Digest mismatch downloading " + url);
+                write(path, Files.newInputStream(tmp));
+            } finally {
+                Files.deleteIfExists(tmp);
+            }
+            succeeded();
+            return true;
+        } catch (IOException e) {
+            failed();
+            return false;
+        } finally {
+            if (con != null)
+                con.disconnect();
+        }
+    }
+
+    private void upload(URL url, Path path) {
+        if (!isAvailable())
+            return;
+        HttpURLConnection con = null;
+        try {
+            String digest;
+            try (InputStream in = Files.newInputStream(path)) {
+                digest = DIGEST.hash(in);
+            }
+            con = open(url, "PUT");
+            con.setDoOutput(true);
+            con.setFixedLengthStreamingMode(Files.size(path));
+            con.setRequestProperty("If-None-Match", "*");
+            con.setRequestProperty(DIGEST_HEADER, digest);
+            con.setRequestProperty("Content-Type", "application/octet-stream");
+            try (OutputStream out = con.getOutputStream();
+                 InputStream in = Files.newInputStream(path)) {
+                byte[] buf = new byte[8192];
+                int read;
+                while ((read = in.read(buf)) != -1)
+                    out.write(buf, 0, read);
+            }
+            int code = con.getResponseCode();
+            // 412 is another machine winning the race to upload it, which is just as good
+            if (code / 100 != 2 && code != HttpURLConnection.HTTP_PRECON_FAILED)
+                throw new IOException("Unexpected response " + code + " for " + url);
+            succeeded();
+        } catch (IOException e) {
+            failed();
+        } finally {
+            if (con != null)
+                con.disconnect();
+        }
+    }
+
+    private HttpURLConnection open(URL url, String method) throws IOException {
+        HttpURLConnection con = (HttpURLConnection)url.openConnection();
+        con.setRequestMethod(method);
+        con.setConnectTimeout(connectTimeout);
+        con.setReadTimeout(readTimeout);
+        con.setUseCaches(false);
+        return con;
+    }
+
+    private boolean isAvailable() {
+        return System.currentTimeMillis() >= disabledUntil.get();
+    }
+
+    private void succeeded() {
+        failures.set(0);
+    }
+
+    private void failed() {
+        if (failures.incrementAndGet() >= FAILURE_THRESHOLD) {
+            failures.set(0);
+            disabledUntil.set(System.currentTimeMillis() + coolDown);
+        }
+    }
+
+    @Override
+    public String toString() {
+        return "RemoteArtifactCache(" + base + ", " + local + ")";
+    }
+
+}
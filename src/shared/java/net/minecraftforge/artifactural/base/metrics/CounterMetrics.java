@@ -0,0 +1,181 @@
+/*
+ * Artifactural
+ * Copyright (c) 2018-2021.
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation version 2.1
+ * of the License.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+
+package net.minecraftforge.artifactural.base.metrics;
+
+import java.util.Collections;
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * In memory collector backed by {@link LongAdder}s and {@link Histogram}s.
+ * Register an instance at the start of a build and print {@link #report()} at the end
+ * to see where resolution time went.
+ */
+public class CounterMetrics implements MetricsCollector {
+
+    private final Map<LookupOutcome, LongAdder> lookups = new EnumMap<>(LookupOutcome.class);
+    private final Map<LookupOutcome, Histogram> lookupLatency = new EnumMap<>(LookupOutcome.class);
+    private final LongAdder cacheHits = new LongAdder();
+    private final LongAdder cacheMisses = new LongAdder();
+    private final LongAdder bytesWritten = new LongAdder();
+    private final ConcurrentMap<String, ProviderStats> providers = new ConcurrentHashMap<>();
+    private final ConcurrentMap<String, Histogram> transformers = new ConcurrentHashMap<>();
+    private final Histogram resolverWaits = new Histogram();
+    private final Histogram resolverResolves = new Histogram();
+
+    public CounterMetrics() {
+        // Filled up front so the maps are never structurally modified, and safe to read concurrently.
+        for (LookupOutcome outcome : LookupOutcome.values()) {
+            lookups.put(outcome, new LongAdder());
+            lookupLatency.put(outcome, new Histogram());
+        }
+    }
+
+    @Override
+    public void lookup(LookupOutcome outcome, long nanos) {
+        lookups.get(outcome).increment();
+        lookupLatency.get(outcome).record(nanos);
+    }
+
+    @Override
+    public void cacheHit() {
+        cacheHits.increment();
+    }
+
+    @Override
+    public void cacheMiss() {
+        cacheMisses.increment();
+    }
+
+    @Override
+    public void bytesWritten(long bytes) {
+        bytesWritten.add(bytes);
+    }
+
+    @Override
+    public void providerLatency(String provider, boolean hit, long nanos) {
+        ProviderStats stats = providers.computeIfAbsent(provider, k -> new ProviderStats());
+        (hit ? stats.hits : stats.misses).record(nanos);
+    }
+
+    @Override
+    public void transformerLatency(String transformer, long nanos) {
+        transformers.computeIfAbsent(transformer, k -> new Histogram()).record(nanos);
+    }
+
+    @Override
+    public void resolverWait(String dependency, long nanos) {
+        resolverWaits.record(nanos);
+    }
+
+    @Override
+    public void resolverResolve(String dependency, long nanos) {
+        resolverResolves.record(nanos);
+    }
+
+    public long getLookups(LookupOutcome outcome) {
+        return lookups.get(outcome).sum();
+    }
+
+    public Histogram getLookupLatency(LookupOutcome outcome) {
+        return lookupLatency.get(outcome);
+    }
+
+    public long getCacheHits() {
+        return cacheHits.sum();
+    }
+
+    public long getCacheMisses() {
+        return cacheMisses.sum();
+    }
+
+    public long getBytesWritten() {
+        return bytesWritten.sum();
+    }
+
+    public Map<String, ProviderStats> getProviders() {
+        return Collections.unmodifiableMap(providers);
+    }
+
+    public Map<String, Histogram> getTransformers() {
+        return Collections.unmodifiableMap(transformers);
+    }
+
+    public Histogram getResolverWaits() {
+        return resolverWaits;
+    }
+
+    public Histogram getResolverResolves() {
+        return resolverResolves;
+    }
+
+    /**
+     * @return Human readable summary, latencies are in microseconds.
+     */
+    public String report() {
+        StringBuilder buf = new StringBuilder("Artifactural metrics:\n");
+        buf.append("  Lookups:\n");
+        for (LookupOutcome outcome : LookupOutcome.values()) {
+            if (getLookups(outcome) != 0)
+                buf.append("    ").append(outcome).append(": ").append(micros(lookupLatency.get(outcome))).append('\n');
+        }
+        buf.append("  Cache: hits=").append(getCacheHits()).append(" misses=").append(getCacheMisses())
+            .append(" written=").append(getBytesWritten()).append(" bytes\n");
+        buf.append("  Providers:\n");
+        new TreeMap<>(providers).forEach((name, stats) ->
+            buf.append("    ").append(name).append(": hit[").append(micros(stats.hits)).append("] miss[").append(micros(stats.misses)).append("]\n"));
+        buf.append("  Transformers:\n");
+        new TreeMap<>(transformers).forEach((name, hist) -> buf.append("    ").append(name).append(": ").append(micros(hist)).append('\n'));
+        buf.append("  DependencyResolver: waits[").append(micros(resolverWaits)).append("] resolves[").append(micros(resolverResolves)).append("]\n");
+        return buf.toString();
+    }
+
+    private static String micros(Histogram hist) {
+        return String.format("count=%d mean=%d p50=%d p99=%d max=%d", hist.getCount(),
+            TimeUnit.NANOSECONDS.toMicros((long)hist.getMean()),
+            TimeUnit.NANOSECONDS.toMicros(hist.getPercentile(0.5)),
+            TimeUnit.NANOSECONDS.toMicros(hist.getPercentile(0.99)),
+            TimeUnit.NANOSECONDS.toMicros(hist.getMax()));
+    }
+
+    @Override
+    public String toString() {
+        return report();
+    }
+
+    public static class ProviderStats {
+        private final Histogram hits = new Histogram();
+        private final Histogram misses = new Histogram();
+
+        public Histogram getHits() {
+            return hits;
+        }
+
+        public Histogram getMisses() {
+            return misses;
+        }
+    }
+
+}
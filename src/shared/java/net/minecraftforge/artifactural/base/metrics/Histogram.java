@@ -0,0 +1,94 @@
+/*
+ * Artifactural
+ * Copyright (c) 2018-2021.
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation version 2.1
+ * of the License.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+
+package net.minecraftforge.artifactural.base.metrics;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Lock free histogram of non-negative values using power of two buckets.
+ * Bucket {@code n} counts values in {@code [2^(n-1), 2^n)}, so percentiles are
+ * accurate to within a factor of two, which is plenty for latency triage.
+ */
+public class Histogram {
+
+    private static final int BUCKETS = 64; // 64 - numberOfLeadingZeros is at most 63 for non-negative longs
+
+    private final AtomicLongArray buckets = new AtomicLongArray(BUCKETS);
+    private final LongAdder count = new LongAdder();
+    private final LongAdder sum = new LongAdder();
+    private final AtomicLong max = new AtomicLong();
+
+    public void record(long value) {
+        if (value < 0) value = 0;
+        buckets.incrementAndGet(64 - Long.numberOfLeadingZeros(value));
+        count.increment();
+        sum.add(value);
+        long prev;
+        while (value > (prev = max.get()) && !max.compareAndSet(prev, value));
+    }
+
+    public long getCount() {
+        return count.sum();
+    }
+
+    public long getSum() {
+        return sum.sum();
+    }
+
+    public long getMax() {
+        return max.get();
+    }
+
+    public double getMean() {
+        long c = getCount();
+        return c == 0 ? 0 : (double)getSum() / c;
+    }
+
+    /**
+     * @param percentile Between 0 and 1
+     * @return Upper bound of the bucket containing the requested percentile, capped to the largest recorded value.
+     */
+    public long getPercentile(double percentile) {
+        long total = 0;
+        long[] snapshot = new long[BUCKETS];
+        for (int x = 0; x < BUCKETS; x++) {
+            snapshot[x] = buckets.get(x);
+            total += snapshot[x];
+        }
+        if (total == 0) return 0;
+
+        long target = (long)Math.ceil(total * percentile);
+        long seen = 0;
+        for (int x = 0; x < BUCKETS; x++) {
+            seen += snapshot[x];
+            if (seen >= target && snapshot[x] != 0)
+                return Math.min(x == 0 ? 0 : x >= 63 ? Long.MAX_VALUE : (1L << x) - 1, getMax());
+        }
+        return getMax();
+    }
+
+    @Override
+    public String toString() {
+        return String.format("count=%d mean=%.0f p50=%d p99=%d max=%d", getCount(), getMean(), getPercentile(0.5), getPercentile(0.99), getMax());
+    }
+
+}
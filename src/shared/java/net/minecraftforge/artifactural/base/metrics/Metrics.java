@@ -0,0 +1,209 @@
+/*
+ * Artifactural
+ * Copyright (c) 2018-2021.
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation version 2.1
+ * of the License.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+
+package net.minecraftforge.artifactural.base.metrics;
+
+import net.minecraftforge.artifactural.base.metrics.MetricsCollector.LookupOutcome;
+
+import java.util.Arrays;
+
+/**
+ * Global registry of {@link MetricsCollector}s.
+ *
+ * By default only a JFR backed collector is registered, when the running JVM supports it.
+ * Its events cost a single enabled check unless a recording is active. This can be
+ * turned off with {@code -Dartifactural.metrics.jfr=false}.
+ *
+ * Timed operations are measured with a {@link Timer}, started before the operation runs, so the JFR
+ * events show when the operation actually started rather than only how long it took.
+ */
+public final class Metrics {
+
+    private static final MetricsCollector[] EMPTY = new MetricsCollector[0];
+    private static volatile MetricsCollector[] collectors = EMPTY;
+    private static final MetricsCollector DISPATCH = new Dispatch();
+    private static final TimedEvents EVENTS;
+
+    static {
+        MetricsCollector jfr = null;
+        if (!"false".equals(System.getProperty("artifactural.metrics.jfr"))) {
+            jfr = createJfr();
+            if (jfr != null)
+                register(jfr);
+        }
+        EVENTS = jfr instanceof TimedEvents ? (TimedEvents)jfr : null;
+    }
+
+    private Metrics() {}
+
+    /**
+     * @return A collector that forwards to every registered collector.
+     */
+    public static MetricsCollector get() {
+        return DISPATCH;
+    }
+
+    public static Timer startLookup() {
+        return new Timer(EVENTS == null ? null : EVENTS.beginLookup());
+    }
+
+    public static Timer startProvider() {
+        return new Timer(EVENTS == null ? null : EVENTS.beginProvider());
+    }
+
+    public static Timer startTransformer() {
+        return new Timer(EVENTS == null ? null : EVENTS.beginTransformer());
+    }
+
+    /**
+     * Starts timing a dependency resolution, or a wait on another thread's, stopped with either
+     * {@link Timer#resolverResolve(String)} or {@link Timer#resolverWait(String)}.
+     */
+    public static Timer startResolver() {
+        return new Timer(EVENTS == null ? null : EVENTS.beginResolver());
+    }
+
+    public static synchronized void register(MetricsCollector collector) {
+        MetricsCollector[] next = Arrays.copyOf(collectors, collectors.length + 1);
+        next[next.length - 1] = collector;
+        collectors = next;
+    }
+
+    public static synchronized void unregister(MetricsCollector collector) {
+        collectors = Arrays.stream(collectors).filter(c -> c != collector).toArray(MetricsCollector[]::new);
+    }
+
+    /**
+     * Name used to group measurements of a provider or transformer, stable across instances of the same class.
+     */
+    public static String nameOf(Object obj) {
+        return obj.getClass().getName();
+    }
+
+    private static MetricsCollector createJfr() {
+        try {
+            // Loaded reflectively so JVMs without jdk.jfr never touch the event classes, which are built in the jfr source set.
+            Class<?> recorder = Class.forName("jdk.jfr.FlightRecorder");
+            if (!(Boolean)recorder.getMethod("isAvailable").invoke(null))
+                return null;
+            return (MetricsCollector)Class.forName("net.minecraftforge.artifactural.base.metrics.JfrMetrics").newInstance();
+        } catch (ReflectiveOperationException | LinkageError e) {
+            return null;
+        }
+    }
+
+    /**
+     * Measures one operation, from when it was started until it's stopped by the method matching the
+     * {@code start} method that created it. Stopping reports the duration to every collector.
+     */
+    public static final class Timer {
+        private final Object event;
+        private final long start = System.nanoTime();
+
+        private Timer(Object event) {
+            this.event = event;
+        }
+
+        /**
+         * @return Nanoseconds since the timer was started.
+         */
+        public long lookup(LookupOutcome outcome) {
+            long nanos = System.nanoTime() - start;
+            if (event != null)
+                EVENTS.endLookup(event, outcome);
+            DISPATCH.lookup(outcome, nanos);
+            return nanos;
+        }
+
+        public long provider(String provider, boolean hit) {
+            long nanos = System.nanoTime() - start;
+            if (event != null)
+                EVENTS.endProvider(event, provider, hit);
+            DISPATCH.providerLatency(provider, hit, nanos);
+            return nanos;
+        }
+
+        public long transformer(String transformer) {
+            long nanos = System.nanoTime() - start;
+            if (event != null)
+                EVENTS.endTransformer(event, transformer);
+            DISPATCH.transformerLatency(transformer, nanos);
+            return nanos;
+        }
+
+        public long resolverWait(String dependency) {
+            long nanos = System.nanoTime() - start;
+            if (event != null)
+                EVENTS.endResolver(event, dependency, true);
+            DISPATCH.resolverWait(dependency, nanos);
+            return nanos;
+        }
+
+        public long resolverResolve(String dependency) {
+            long nanos = System.nanoTime() - start;
+            if (event != null)
+                EVENTS.endResolver(event, dependency, false);
+            DISPATCH.resolverResolve(dependency, nanos);
+            return nanos;
+        }
+    }
+
+    private static class Dispatch implements MetricsCollector {
+        @Override
+        public void lookup(LookupOutcome outcome, long nanos) {
+            for (MetricsCollector c : collectors) c.lookup(outcome, nanos);
+        }
+
+        @Override
+        public void cacheHit() {
+            for (MetricsCollector c : collectors) c.cacheHit();
+        }
+
+        @Override
+        public void cacheMiss() {
+            for (MetricsCollector c : collectors) c.cacheMiss();
+        }
+
+        @Override
+        public void bytesWritten(long bytes) {
+            for (MetricsCollector c : collectors) c.bytesWritten(bytes);
+        }
+
+        @Override
+        public void providerLatency(String provider, boolean hit, long nanos) {
+            for (MetricsCollector c : collectors) c.providerLatency(provider, hit, nanos);
+        }
+
+        @Override
+        public void transformerLatency(String transformer, long nanos) {
+            for (MetricsCollector c : collectors) c.transformerLatency(transformer, nanos);
+        }
+
+        @Override
+        public void resolverWait(String dependency, long nanos) {
+            for (MetricsCollector c : collectors) c.resolverWait(dependency, nanos);
+        }
+
+        @Override
+        public void resolverResolve(String dependency, long nanos) {
+            for (MetricsCollector c : collectors) c.resolverResolve(dependency, nanos);
+        }
+    }
+
+}
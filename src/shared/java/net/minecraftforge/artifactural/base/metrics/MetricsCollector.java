@@ -0,0 +1,68 @@
+/*
+ * Artifactural
+ * Copyright (c) 2018-2021.
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation version 2.1
+ * of the License.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+
+package net.minecraftforge.artifactural.base.metrics;
+
+/**
+ * Receives measurements from the repository, cache and transformer hot paths.
+ * Every method is called inline on the thread doing the work, so implementations
+ * must be thread safe and should not block. All durations are in nanoseconds.
+ *
+ * Register implementations with {@link Metrics#register(MetricsCollector)}.
+ */
+public interface MetricsCollector {
+
+    enum LookupOutcome {
+        /** A generated artifact was found and served */
+        FOUND,
+        /** The path decoded to an artifact, but no provider could supply it */
+        MISSING,
+        /** A maven-metadata.xml request */
+        METADATA,
+        /** A directory listing request */
+        DIRECTORY,
+        /** The path was under the repository root, but was not in maven layout */
+        UNMATCHED,
+        /** The path was not under the repository root */
+        UNKNOWN_ROOT
+    }
+
+    default void lookup(LookupOutcome outcome, long nanos) {}
+
+    default void cacheHit() {}
+
+    default void cacheMiss() {}
+
+    default void bytesWritten(long bytes) {}
+
+    default void providerLatency(String provider, boolean hit, long nanos) {}
+
+    default void transformerLatency(String transformer, long nanos) {}
+
+    /**
+     * Time a thread spent blocked waiting on another thread's resolution of the same dependency.
+     */
+    default void resolverWait(String dependency, long nanos) {}
+
+    /**
+     * Time spent resolving a dependency through Gradle.
+     */
+    default void resolverResolve(String dependency, long nanos) {}
+
+}
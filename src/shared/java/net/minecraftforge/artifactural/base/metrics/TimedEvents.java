@@ -0,0 +1,49 @@
+/*
+ * Artifactural
+ * Copyright (c) 2018-2021.
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation version 2.1
+ * of the License.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+
+package net.minecraftforge.artifactural.base.metrics;
+
+import net.minecraftforge.artifactural.base.metrics.MetricsCollector.LookupOutcome;
+
+/**
+ * Events that are begun when a timed operation starts and ended when it is done, so they carry the
+ * operation's own start time and duration. Each {@code begin} method returns the event, or null if it
+ * isn't being recorded, which is passed back to the matching {@code end} method by {@link Metrics.Timer}.
+ *
+ * Implemented by the JFR collector, see {@link Metrics}.
+ */
+interface TimedEvents {
+
+    Object beginLookup();
+
+    void endLookup(Object event, LookupOutcome outcome);
+
+    Object beginProvider();
+
+    void endProvider(Object event, String provider, boolean hit);
+
+    Object beginTransformer();
+
+    void endTransformer(Object event, String transformer);
+
+    Object beginResolver();
+
+    void endResolver(Object event, String dependency, boolean waited);
+
+}
@@ -0,0 +1,216 @@
+/*
+ * Artifactural
+ * Copyright (c) 2018-2021.
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation version 2.1
+ * of the License.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+
+package net.minecraftforge.artifactural.base.metrics;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * Opt-in recorder of timed spans, used to see the timeline of a single slow build.
+ *
+ * Spans are kept in a fixed size ring buffer, so a long build only keeps the most recent
+ * {@code capacity} spans, and recording never blocks. When no recorder is active
+ * {@link #begin(String, String)} returns a shared no-op span.
+ *
+ * Example:
+ * <pre>
+ *   try (TraceRecorder.Span span = TraceRecorder.begin("provider", name)) {
+ *       ...
+ *   }
+ * </pre>
+ *
+ * The result is written in the Chrome trace-event format, which can be opened
+ * in chrome://tracing or https://ui.perfetto.dev
+ */
+public class TraceRecorder {
+
+    private static final Span NOOP = new Span() {
+        @Override public Span detail(String detail) { return this; }
+        @Override public void close() {}
+    };
+
+    private static volatile TraceRecorder active;
+
+    /**
+     * Starts recording into a new ring buffer, replacing any recorder already active.
+     */
+    public static synchronized TraceRecorder start(int capacity) {
+        return active = new TraceRecorder(capacity);
+    }
+
+    /**
+     * Stops recording, returning the recorder that was active, or null.
+     */
+    public static synchronized TraceRecorder stop() {
+        TraceRecorder ret = active;
+        active = null;
+        return ret;
+    }
+
+    public static TraceRecorder getActive() {
+        return active;
+    }
+
+    public static Span begin(String category, String name) {
+        TraceRecorder recorder = active;
+        return recorder == null ? NOOP : recorder.new Record(category, name);
+    }
+
+    private final long origin = System.nanoTime();
+    private final AtomicReferenceArray<Record> slots;
+    private final AtomicLong next = new AtomicLong();
+
+    private TraceRecorder(int capacity) {
+        if (capacity < 1)
+            throw new IllegalArgumentException("Capacity must be at least 1: " + capacity);
+        this.slots = new AtomicReferenceArray<>(capacity);
+    }
+
+    /**
+     * @return Number of spans recorded, including ones that have since been overwritten.
+     */
+    public long getRecorded() {
+        return next.get();
+    }
+
+    public void writeChromeTrace(File output) throws IOException {
+        List<Record> records = new ArrayList<>();
+        for (int x = 0; x < slots.length(); x++) {
+            Record record = slots.get(x);
+            if (record != null)
+                records.add(record);
+        }
+        records.sort(Comparator.comparingLong(r -> r.start));
+
+        Map<Long, String> threads = new LinkedHashMap<>();
+        for (Record record : records)
+            threads.putIfAbsent(record.thread, record.threadName);
+
+        if (output.getParentFile() != null)
+            output.getParentFile().mkdirs();
+        try (Writer out = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(output), StandardCharsets.UTF_8))) {
+            out.write("{\"displayTimeUnit\":\"ms\",\"traceEvents\":[");
+            boolean first = true;
+            for (Map.Entry<Long, String> thread : threads.entrySet()) {
+                if (!first) out.write(',');
+                first = false;
+                out.write("\n{\"ph\":\"M\",\"name\":\"thread_name\",\"pid\":1,\"tid\":" + thread.getKey() + ",\"args\":{\"name\":");
+                quote(out, thread.getValue());
+                out.write("}}");
+            }
+            for (Record record : records) {
+                if (!first) out.write(',');
+                first = false;
+                out.write("\n{\"ph\":\"X\",\"pid\":1,\"tid\":" + record.thread + ",\"cat\":");
+                quote(out, record.category);
+                out.write(",\"name\":");
+                quote(out, record.name);
+                out.write(",\"ts\":" + micros(record.start - origin) + ",\"dur\":" + micros(record.duration));
+                if (record.detail != null) {
+                    out.write(",\"args\":{\"detail\":");
+                    quote(out, record.detail);
+                    out.write('}');
+                }
+                out.write('}');
+            }
+            out.write("\n]}\n");
+        }
+    }
+
+    private static String micros(long nanos) {
+        return String.format(Locale.ROOT, "%d.%03d", nanos / 1000, nanos % 1000);
+    }
+
+    private static void quote(Writer out, String value) throws IOException {
+        out.write('"');
+        for (int x = 0; x < value.length(); x++) {
+            char c = value.charAt(x);
+            switch (c) {
+                case '"':  out.write("\\\""); break;
+                case '\\': out.write("\\\\"); break;
+                case '\n': out.write("\\n"); break;
+                case '\r': out.write("\\r"); break;
+                case '\t': out.write("\\t"); break;
+                default:
+                    if (c < 0x20)
+                        out.write(String.format(Locale.ROOT, "\\u%04x", (int)c));
+                    else
+                        out.write(c);
+            }
+        }
+        out.write('"');
+    }
+
+    public interface Span extends AutoCloseable {
+        /**
+         * Attaches a short description to the span, such as the outcome of a lookup.
+         */
+        Span detail(String detail);
+
+        @Override
+        void close();
+    }
+
+    private class Record implements Span {
+        private final String category;
+        private final String name;
+        private final long thread;
+        private final String threadName;
+        private final long start;
+        private long duration = -1;
+        private String detail;
+
+        private Record(String category, String name) {
+            Thread current = Thread.currentThread();
+            this.category = category;
+            this.name = name;
+            this.thread = current.getId();
+            this.threadName = current.getName();
+            this.start = System.nanoTime();
+        }
+
+        @Override
+        public Span detail(String detail) {
+            this.detail = detail;
+            return this;
+        }
+
+        @Override
+        public void close() {
+            if (duration != -1) return;
+            duration = System.nanoTime() - start;
+            slots.set((int)(next.getAndIncrement() % slots.length()), this);
+        }
+    }
+
+}
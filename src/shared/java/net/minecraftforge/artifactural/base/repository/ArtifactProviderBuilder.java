@@ -19,13 +19,26 @@
 
 package net.minecraftforge.artifactural.base.repository;
 
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
 import java.util.HashSet;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
 import java.util.function.Function;
 import java.util.function.Predicate;
 
 import net.minecraftforge.artifactural.api.artifact.Artifact;
 import net.minecraftforge.artifactural.api.repository.ArtifactProvider;
+import net.minecraftforge.artifactural.api.repository.MembershipHint;
+import net.minecraftforge.artifactural.base.metrics.Histogram;
+import net.minecraftforge.artifactural.base.metrics.Metrics;
+import net.minecraftforge.artifactural.base.metrics.TraceRecorder;
 
 public class ArtifactProviderBuilder<S, I> implements ArtifactProvider.Builder<S, I> {
 
@@ -69,9 +82,15 @@ public class ArtifactProviderBuilder<S, I> implements ArtifactProvider.Builder<S
     }
 
     private static class Complete<S, I> implements ArtifactProvider.Builder.Complete<S, I> {
+        // How many lookups between recomputing the adaptive order
+        private static final int REORDER_INTERVAL = 256;
 
-        private final Set<ArtifactProvider<I>> providers = new HashSet<>();
+        private final List<Registration<I>> providers = new ArrayList<>();
         private final Function<S, I> mapper;
+        private volatile boolean adaptive = false;
+        private int priorityFloor;
+        private volatile List<Registration<I>> order = Collections.emptyList();
+        private final AtomicInteger lookups = new AtomicInteger();
 
         private Complete(Function<S, I> mapper) {
             this.mapper = mapper;
@@ -79,22 +98,139 @@ public class ArtifactProviderBuilder<S, I> implements ArtifactProvider.Builder<S
 
         @Override
         public Builder.Complete<S, I> provide(ArtifactProvider<I> provider) {
-            providers.add(provider);
+            return provide(provider, 0);
+        }
+
+        @Override
+        public synchronized Builder.Complete<S, I> provide(ArtifactProvider<I> provider, int priority) {
+            for (Registration<I> existing : providers)
+                if (existing.provider.equals(provider))
+                    return this;
+            providers.add(new Registration<>(provider, priority, providers.size()));
+            reorder();
+            return this;
+        }
+
+        @Override
+        public synchronized Builder.Complete<S, I> adaptive(int priorityFloor) {
+            this.adaptive = true;
+            this.priorityFloor = priorityFloor;
+            reorder();
             return this;
         }
 
+        @Override
+        public List<ArtifactProvider<I>> getProviderOrder() {
+            List<ArtifactProvider<I>> ret = new ArrayList<>();
+            for (Registration<I> reg : order)
+                ret.add(reg.provider);
+            return Collections.unmodifiableList(ret);
+        }
+
+        /**
+         * Fixed providers go first, by priority then registration. In adaptive mode the rest follow by expected
+         * payoff, the chance they supply the artifact divided by the time they take to answer, which is the order
+         * that minimizes the expected time to find the artifact.
+         */
+        private synchronized void reorder() {
+            // Scores keep changing while we sort, so take a snapshot to keep the comparison consistent
+            Map<Registration<I>, Double> scores = new IdentityHashMap<>();
+            for (Registration<I> reg : providers)
+                scores.put(reg, reg.getScore());
+            List<Registration<I>> ret = new ArrayList<>(providers);
+            ret.sort((a, b) -> {
+                boolean fixedA = !adaptive || a.priority >= priorityFloor;
+                boolean fixedB = !adaptive || b.priority >= priorityFloor;
+                if (fixedA != fixedB)
+                    return fixedA ? -1 : 1;
+                if (fixedA) {
+                    if (a.priority != b.priority)
+                        return Integer.compare(b.priority, a.priority);
+                    return Integer.compare(a.index, b.index);
+                }
+                int cmp = Double.compare(scores.get(b), scores.get(a));
+                return cmp != 0 ? cmp : Integer.compare(a.index, b.index);
+            });
+            order = ret;
+        }
+
         @Override
         public Artifact getArtifact(S info) {
             I localInfo = mapper.apply(info);
             if (localInfo == null) return Artifact.none();
 
-            for (ArtifactProvider<I> provider : providers) {
-                Artifact artifact = provider.getArtifact(localInfo);
-                if (artifact.isPresent()) return artifact;
+            if (adaptive && lookups.incrementAndGet() % REORDER_INTERVAL == 0)
+                reorder();
+
+            for (Registration<I> reg : order) {
+                ArtifactProvider<I> provider = reg.provider;
+                MembershipHint<I> hint = provider.getMembershipHint();
+                if (hint != null && !hint.mightContain(localInfo))
+                    continue;
+                String name = Metrics.nameOf(provider);
+                Metrics.Timer timer = Metrics.startProvider();
+                boolean present;
+                Artifact artifact;
+                try (TraceRecorder.Span span = TraceRecorder.begin("provider", name)) {
+                    artifact = provider.getArtifact(localInfo);
+                    present = artifact.isPresent();
+                    span.detail(present ? "hit" : "miss");
+                }
+                long time = timer.provider(name, present);
+                if (adaptive)
+                    reg.record(present, time);
+                if (present) return artifact;
             }
             return Artifact.none();
         }
 
+        /**
+         * Union of the versions listed by every provider. Filters can't be applied here as they
+         * work on the full info, so a listed version may still be rejected by {@link #getArtifact}.
+         */
+        @Override
+        public Collection<String> getVersions(String group, String name) {
+            Set<String> ret = null;
+            for (Registration<I> reg : order) {
+                Collection<String> versions = reg.provider.getVersions(group, name);
+                if (versions.isEmpty()) continue;
+                if (ret == null) ret = new LinkedHashSet<>();
+                ret.addAll(versions);
+            }
+            return ret == null ? Collections.emptySet() : ret;
+        }
+
+    }
+
+    private static class Registration<I> {
+        private final ArtifactProvider<I> provider;
+        private final int priority;
+        private final int index;
+        private final LongAdder hits = new LongAdder();
+        private final LongAdder misses = new LongAdder();
+        private final Histogram latency = new Histogram();
+
+        private Registration(ArtifactProvider<I> provider, int priority, int index) {
+            this.provider = provider;
+            this.priority = priority;
+            this.index = index;
+        }
+
+        private void record(boolean hit, long nanos) {
+            (hit ? hits : misses).increment();
+            latency.record(nanos);
+        }
+
+        private double getScore() {
+            long hit = hits.sum();
+            long total = hit + misses.sum();
+            // Never asked, put it up front once so it gets measured
+            if (total == 0)
+                return Double.POSITIVE_INFINITY;
+            // Smoothed, so a provider doesn't sink to the bottom for good from one early miss
+            double chance = (hit + 1.0) / (total + 2.0);
+            return chance / Math.max(latency.getMean(), 1000.0);
+        }
     }
 
 }
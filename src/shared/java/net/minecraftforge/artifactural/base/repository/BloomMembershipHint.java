@@ -0,0 +1,116 @@
+/*
+ * Artifactural
+ * Copyright (c) 2018-2021.
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation version 2.1
+ * of the License.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+
+package net.minecraftforge.artifactural.base.repository;
+
+import net.minecraftforge.artifactural.api.artifact.ArtifactIdentifier;
+import net.minecraftforge.artifactural.api.repository.MembershipHint;
+
+import java.util.Collection;
+import java.util.function.Function;
+
+/**
+ * Bloom filter over keys derived from the info a provider is asked for. Answering costs one hash
+ * of the key and a handful of bit probes, and the filter takes about 10 bits per key at a 1% false positive rate.
+ *
+ * Keys must all be added before the hint is published, build a new hint when the provider's contents change.
+ */
+public class BloomMembershipHint<I> implements MembershipHint<I> {
+
+    public static BloomMembershipHint<ArtifactIdentifier> ofIdentifiers(Collection<? extends ArtifactIdentifier> identifiers, double falsePositiveRate) {
+        BloomMembershipHint<ArtifactIdentifier> ret = new BloomMembershipHint<>(BloomMembershipHint::identifierKey, identifiers.size(), falsePositiveRate);
+        for (ArtifactIdentifier identifier : identifiers)
+            ret.add(identifierKey(identifier));
+        return ret;
+    }
+
+    /**
+     * Key of an identifier, with every field that selects a distinct artifact.
+     */
+    public static String identifierKey(ArtifactIdentifier identifier) {
+        return identifier.getGroup() + ':' + identifier.getName() + ':' + identifier.getVersion() + ':' +
+            (identifier.getClassifier() == null ? "" : identifier.getClassifier()) + '@' + identifier.getExtension();
+    }
+
+    private final Function<I, String> key;
+    private final long[] bits;
+    private final int size;
+    private final int hashes;
+
+    /**
+     * @param key Derives the key of the info, or null if it can't, in which case the provider is always asked.
+     * @param expected Number of keys that will be added
+     * @param falsePositiveRate Chance of a key that wasn't added being reported as possibly present, between 0 and 1.
+     */
+    public BloomMembershipHint(Function<I, String> key, int expected, double falsePositiveRate) {
+        if (falsePositiveRate <= 0 || falsePositiveRate >= 1)
+            throw new IllegalArgumentException("False positive rate must be between 0 and 1: " + falsePositiveRate);
+        int n = Math.max(expected, 1);
+        long m = (long)Math.ceil(-n * Math.log(falsePositiveRate) / (Math.log(2) * Math.log(2)));
+        this.key = key;
+        this.size = (int)Math.min(Math.max(m, 64), Integer.MAX_VALUE - 63);
+        this.bits = new long[(size + 63) >>> 6];
+        this.hashes = Math.max(1, (int)Math.round((double)size / n * Math.log(2)));
+    }
+
+    public void add(String key) {
+        long hash = hash(key);
+        int h1 = (int)hash, h2 = (int)(hash >>> 32);
+        for (int x = 0; x < hashes; x++) {
+            int bit = ((h1 + x * h2) & Integer.MAX_VALUE) % size;
+            bits[bit >>> 6] |= 1L << bit;
+        }
+    }
+
+    @Override
+    public boolean mightContain(I info) {
+        String k = key.apply(info);
+        if (k == null)
+            return true;
+        long hash = hash(k);
+        int h1 = (int)hash, h2 = (int)(hash >>> 32);
+        for (int x = 0; x < hashes; x++) {
+            int bit = ((h1 + x * h2) & Integer.MAX_VALUE) % size;
+            if ((bits[bit >>> 6] & (1L << bit)) == 0)
+                return false;
+        }
+        return true;
+    }
+
+    // 64 bit FNV-1a, then mixed so both halves are usable as independent hashes
+    private static long hash(String value) {
+        long hash = 0xcbf29ce484222325L;
+        for (int x = 0; x < value.length(); x++) {
+            hash ^= value.charAt(x);
+            hash *= 0x100000001b3L;
+        }
+        hash ^= hash >>> 33;
+        hash *= 0xff51afd7ed558ccdL;
+        hash ^= hash >>> 33;
+        hash *= 0xc4ceb9fe1a85ec53L;
+        hash ^= hash >>> 33;
+        return hash;
+    }
+
+    @Override
+    public String toString() {
+        return "BloomMembershipHint(bits=" + size + ", hashes=" + hashes + ")";
+    }
+
+}
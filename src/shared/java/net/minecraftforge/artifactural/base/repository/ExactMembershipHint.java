@@ -0,0 +1,65 @@
+/*
+ * Artifactural
+ * Copyright (c) 2018-2021.
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation version 2.1
+ * of the License.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+
+package net.minecraftforge.artifactural.base.repository;
+
+import net.minecraftforge.artifactural.api.artifact.ArtifactIdentifier;
+import net.minecraftforge.artifactural.api.repository.MembershipHint;
+
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.function.Function;
+
+/**
+ * Exact set of the keys a provider can supply. Never gives false positives, at the cost of
+ * holding every key, prefer {@link BloomMembershipHint} for large providers.
+ */
+public class ExactMembershipHint<I> implements MembershipHint<I> {
+
+    public static ExactMembershipHint<ArtifactIdentifier> ofIdentifiers(Collection<? extends ArtifactIdentifier> identifiers) {
+        Set<String> keys = new HashSet<>();
+        for (ArtifactIdentifier identifier : identifiers)
+            keys.add(BloomMembershipHint.identifierKey(identifier));
+        return new ExactMembershipHint<>(BloomMembershipHint::identifierKey, keys);
+    }
+
+    private final Function<I, String> key;
+    private final Set<String> keys;
+
+    /**
+     * @param key Derives the key of the info, or null if it can't, in which case the provider is always asked.
+     */
+    public ExactMembershipHint(Function<I, String> key, Collection<String> keys) {
+        this.key = key;
+        this.keys = new HashSet<>(keys);
+    }
+
+    @Override
+    public boolean mightContain(I info) {
+        String k = key.apply(info);
+        return k == null || keys.contains(k);
+    }
+
+    @Override
+    public String toString() {
+        return "ExactMembershipHint(" + keys.size() + ")";
+    }
+
+}
@@ -19,6 +19,8 @@
 
 package net.minecraftforge.artifactural.base.repository;
 
+import java.util.Collection;
+
 import net.minecraftforge.artifactural.api.artifact.Artifact;
 import net.minecraftforge.artifactural.api.artifact.ArtifactIdentifier;
 import net.minecraftforge.artifactural.api.repository.ArtifactProvider;
@@ -27,13 +29,22 @@ import net.minecraftforge.artifactural.api.repository.Repository;
 public class SimpleRepository implements Repository {
 
     public static Repository of(ArtifactProvider<ArtifactIdentifier> provider) {
-        return new SimpleRepository(provider);
+        return new SimpleRepository(provider, null);
+    }
+
+    /**
+     * @param fingerprint See {@link Repository#getFingerprint()}
+     */
+    public static Repository of(ArtifactProvider<ArtifactIdentifier> provider, String fingerprint) {
+        return new SimpleRepository(provider, fingerprint);
     }
 
     private final ArtifactProvider<ArtifactIdentifier> provider;
+    private final String fingerprint;
 
-    private SimpleRepository(ArtifactProvider<ArtifactIdentifier> provider) {
+    private SimpleRepository(ArtifactProvider<ArtifactIdentifier> provider, String fingerprint) {
         this.provider = provider;
+        this.fingerprint = fingerprint;
     }
 
     @Override
@@ -41,4 +52,14 @@ public class SimpleRepository implements Repository {
         return provider.getArtifact(identifier);
     }
 
+    @Override
+    public Collection<String> getVersions(String group, String name) {
+        return provider.getVersions(group, name);
+    }
+
+    @Override
+    public String getFingerprint() {
+        return fingerprint;
+    }
+
 }
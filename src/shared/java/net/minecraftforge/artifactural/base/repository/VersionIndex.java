@@ -0,0 +1,215 @@
+/*
+ * Artifactural
+ * Copyright (c) 2018-2021.
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation version 2.1
+ * of the License.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+
+package net.minecraftforge.artifactural.base.repository;
+
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Date;
+import java.util.List;
+import java.util.Locale;
+import java.util.TimeZone;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ConcurrentSkipListSet;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * In memory index of the known versions of each group:name, replaced as a whole with what the repository
+ * lists each time it is asked, and renders maven-metadata.xml from that.
+ *
+ * The rendered metadata is cached until the versions of that group:name change, so serving
+ * the same metadata repeatedly costs a map lookup.
+ */
+public class VersionIndex {
+
+    /**
+     * Orders versions the way a person would read them, numeric parts are compared as numbers,
+     * so 1.10 comes after 1.9, and a qualified version such as 1.0-SNAPSHOT or 1.0-rc1 comes before
+     * the release it qualifies. Falls back to plain string comparison so distinct versions never compare equal.
+     */
+    public static final Comparator<String> VERSION_ORDER = (a, b) -> {
+        int ret = compareVersions(a, b);
+        return ret != 0 ? ret : a.compareTo(b);
+    };
+
+    private final ConcurrentMap<String, Entry> entries = new ConcurrentHashMap<>();
+
+    /**
+     * Replaces the known versions with exactly {@code versions}.
+     *
+     * @return True if that changed them
+     */
+    public boolean set(String group, String name, Collection<String> versions) {
+        Entry entry = versions.isEmpty() ? entries.get(key(group, name)) : getEntry(group, name);
+        if (entry == null)
+            return false;
+        ConcurrentSkipListSet<String> next = new ConcurrentSkipListSet<>(VERSION_ORDER);
+        next.addAll(versions);
+        synchronized (entry) {
+            if (next.equals(entry.versions))
+                return false;
+            entry.versions = next;
+            entry.changed();
+        }
+        return true;
+    }
+
+    /**
+     * @return Known versions in ascending order
+     */
+    public List<String> getVersions(String group, String name) {
+        Entry entry = entries.get(key(group, name));
+        if (entry == null)
+            return Collections.emptyList();
+        return Collections.unmodifiableList(new ArrayList<>(entry.versions));
+    }
+
+    /**
+     * @return The contents of a maven-metadata.xml listing all known versions, or null if there are none.
+     */
+    public String getMavenMetadata(String group, String name) {
+        Entry entry = entries.get(key(group, name));
+        if (entry == null)
+            return null;
+        Rendered rendered = entry.metadata;
+        int revision = entry.revision.get();
+        if (rendered == null || rendered.revision != revision) {
+            // Racing threads may both render this, the revision check makes sure a stale render is never served twice.
+            rendered = entry.metadata = new Rendered(revision, render(group, name, entry));
+        }
+        return rendered.xml.isEmpty() ? null : rendered.xml;
+    }
+
+    private Entry getEntry(String group, String name) {
+        return entries.computeIfAbsent(key(group, name), k -> new Entry());
+    }
+
+    private static String key(String group, String name) {
+        return group + ':' + name;
+    }
+
+    private static String render(String group, String name, Entry entry) {
+        List<String> versions = new ArrayList<>(entry.versions);
+        if (versions.isEmpty())
+            return "";
+
+        String latest = versions.get(versions.size() - 1);
+        String release = null;
+        for (int x = versions.size() - 1; x >= 0 && release == null; x--) {
+            if (!versions.get(x).endsWith("-SNAPSHOT"))
+                release = versions.get(x);
+        }
+
+        SimpleDateFormat format = new SimpleDateFormat("yyyyMMddHHmmss", Locale.ROOT);
+        format.setTimeZone(TimeZone.getTimeZone("UTC"));
+
+        StringBuilder buf = new StringBuilder();
+        buf.append("<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n");
+        buf.append("<metadata>\n");
+        buf.append("  <groupId>").append(escape(group)).append("</groupId>\n");
+        buf.append("  <artifactId>").append(escape(name)).append("</artifactId>\n");
+        buf.append("  <versioning>\n");
+        buf.append("    <latest>").append(escape(latest)).append("</latest>\n");
+        if (release != null)
+            buf.append("    <release>").append(escape(release)).append("</release>\n");
+        buf.append("    <versions>\n");
+        for (String version : versions)
+            buf.append("      <version>").append(escape(version)).append("</version>\n");
+        buf.append("    </versions>\n");
+        buf.append("    <lastUpdated>").append(format.format(new Date(entry.lastUpdated))).append("</lastUpdated>\n");
+        buf.append("  </versioning>\n");
+        buf.append("</metadata>\n");
+        return buf.toString();
+    }
+
+    private static String escape(String value) {
+        return value.replace("&", "&amp;").replace("<", "&lt;").replace(">", "&gt;");
+    }
+
+    private static int compareVersions(String a, String b) {
+        int x = 0, y = 0;
+        while (x < a.length() && y < b.length()) {
+            char ca = a.charAt(x), cb = b.charAt(y);
+            if (Character.isDigit(ca) && Character.isDigit(cb)) {
+                int sx = x, sy = y;
+                while (sx < a.length() && a.charAt(sx) == '0') sx++;
+                while (sy < b.length() && b.charAt(sy) == '0') sy++;
+                int ex = sx, ey = sy;
+                while (ex < a.length() && Character.isDigit(a.charAt(ex))) ex++;
+                while (ey < b.length() && Character.isDigit(b.charAt(ey))) ey++;
+                if (ex - sx != ey - sy)
+                    return (ex - sx) - (ey - sy);
+                int ret = a.substring(sx, ex).compareTo(b.substring(sy, ey));
+                if (ret != 0)
+                    return ret;
+                x = ex;
+                y = ey;
+            } else {
+                if (ca != cb)
+                    break;
+                x++;
+                y++;
+            }
+        }
+        // Where they differ, a qualifier such as -SNAPSHOT or -rc1 comes before the end of the version, which comes before anything else
+        int ret = rank(a, x) - rank(b, y);
+        if (ret != 0 || x == a.length())
+            return ret;
+        return a.charAt(x) - b.charAt(y);
+    }
+
+    private static int rank(String version, int idx) {
+        if (idx == version.length())
+            return 1;
+        char c = version.charAt(idx);
+        if (c == '-' && idx + 1 < version.length() && !Character.isDigit(version.charAt(idx + 1)))
+            return 0;
+        if (idx > 0 && version.charAt(idx - 1) == '-' && !Character.isDigit(c))
+            return 0;
+        return 2;
+    }
+
+    private static class Entry {
+        // Replaced as a whole by set, never changed in place
+        private volatile ConcurrentSkipListSet<String> versions = new ConcurrentSkipListSet<>(VERSION_ORDER);
+        private final AtomicInteger revision = new AtomicInteger();
+        private volatile long lastUpdated = System.currentTimeMillis();
+        private volatile Rendered metadata;
+
+        private void changed() {
+            lastUpdated = System.currentTimeMillis();
+            revision.incrementAndGet();
+        }
+    }
+
+    private static class Rendered {
+        private final int revision;
+        private final String xml;
+
+        private Rendered(int revision, String xml) {
+            this.revision = revision;
+            this.xml = xml;
+        }
+    }
+
+}
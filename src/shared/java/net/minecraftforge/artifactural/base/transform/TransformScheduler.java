@@ -0,0 +1,216 @@
+/*
+ * Artifactural
+ * Copyright (c) 2018-2021.
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation version 2.1
+ * of the License.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+
+package net.minecraftforge.artifactural.base.transform;
+
+import net.minecraftforge.artifactural.api.artifact.Artifact;
+import net.minecraftforge.artifactural.api.artifact.ArtifactIdentifier;
+import net.minecraftforge.artifactural.api.artifact.ArtifactMetadata;
+import net.minecraftforge.artifactural.api.cache.ArtifactCache;
+import net.minecraftforge.artifactural.api.transform.ArtifactTransformer;
+import net.minecraftforge.artifactural.base.util.BlockingExecutors;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutorService;
+
+/**
+ * Runs a graph of artifact -> transformer -> artifact steps, materializing every
+ * node into an {@link ArtifactCache} exactly once.
+ *
+ * Nodes are deduplicated by their identifier and metadata hash, the same pair
+ * {@link net.minecraftforge.artifactural.base.cache.LocatedArtifactCache} uses to
+ * lay out files, so a shared intermediate (for example one deobfuscated base jar
+ * feeding several outputs) is only produced once. Independent branches are run in
+ * parallel, a node starts as soon as its input is done, so the whole graph finishes
+ * in roughly the time of its longest chain.
+ *
+ * Example:
+ * <pre>
+ *   TransformScheduler scheduler = new TransformScheduler(cache, 4);
+ *   TransformScheduler.Node base = scheduler.transform(scheduler.source(vanilla), deobf);
+ *   TransformScheduler.Node a = scheduler.transform(base, patchA);
+ *   TransformScheduler.Node b = scheduler.transform(base, patchB);
+ *   Map&lt;Node, Artifact.Cached&gt; results = scheduler.execute();
+ * </pre>
+ */
+public class TransformScheduler {
+
+    private final ArtifactCache cache;
+    private final int parallelism;
+    private final Map<String, Node> nodes = new LinkedHashMap<>();
+
+    public TransformScheduler(ArtifactCache cache, int parallelism) {
+        if (parallelism < 1)
+            throw new IllegalArgumentException("Parallelism must be at least 1: " + parallelism);
+        this.cache = cache;
+        this.parallelism = parallelism;
+    }
+
+    /**
+     * Adds a root artifact to the graph, returning the existing node if an artifact
+     * with the same identifier and metadata hash was already added.
+     */
+    public synchronized Node source(Artifact artifact) {
+        String key = key(artifact.getIdentifier(), artifact.getMetadata());
+        return nodes.computeIfAbsent(key, k -> new Node(k, artifact.getIdentifier(), artifact.getMetadata(), artifact, null, null));
+    }
+
+    /**
+     * Adds a transformation of {@code input} to the graph. The resulting node is keyed by the
+     * input's identifier and the metadata the transformer reports through {@link ArtifactTransformer#withInfo},
+     * so two transformers that report the same metadata are considered identical.
+     */
+    public synchronized Node transform(Node input, ArtifactTransformer transformer) {
+        if (nodes.get(input.key) != input)
+            throw new IllegalArgumentException("Node does not belong to this scheduler: " + input);
+        ArtifactMetadata metadata = transformer.withInfo(input.metadata);
+        String key = key(input.identifier, metadata);
+        return nodes.computeIfAbsent(key, k -> new Node(k, input.identifier, metadata, null, input, transformer));
+    }
+
+    /**
+     * Convenience for {@link #source(Artifact)} followed by {@link #transform(Node, ArtifactTransformer)}
+     * for every transformer in order, returning the last node of the chain.
+     */
+    public synchronized Node chain(Artifact artifact, ArtifactTransformer... transformers) {
+        Node node = source(artifact);
+        for (ArtifactTransformer transformer : transformers)
+            node = transform(node, transformer);
+        return node;
+    }
+
+    public synchronized List<Node> getNodes() {
+        return Collections.unmodifiableList(new ArrayList<>(nodes.values()));
+    }
+
+    /**
+     * Materializes every node in the graph and blocks until all of them are done.
+     * If any node failed, its dependents are skipped and the first failure is rethrown
+     * once everything else has finished.
+     *
+     * @return Cached artifacts for every node, in the order the nodes were added.
+     */
+    public Map<Node, Artifact.Cached> execute() {
+        List<Node> snapshot = getNodes();
+        ExecutorService executor = BlockingExecutors.create("Artifactural Transform", parallelism);
+        try {
+            Map<Node, CompletableFuture<Artifact.Cached>> futures = new LinkedHashMap<>();
+            // Nodes are stored in insertion order, and an input is always added before its dependents.
+            for (Node node : snapshot) {
+                CompletableFuture<Artifact.Cached> future;
+                if (node.input == null) {
+                    future = CompletableFuture.supplyAsync(() -> materialize(node.artifact), executor);
+                } else {
+                    future = futures.get(node.input).thenApplyAsync(in -> materialize(in.apply(node.transformer)), executor);
+                }
+                futures.put(node, future);
+            }
+
+            Map<Node, Artifact.Cached> results = new LinkedHashMap<>();
+            RuntimeException failure = null;
+            for (Map.Entry<Node, CompletableFuture<Artifact.Cached>> entry : futures.entrySet()) {
+                try {
+                    results.put(entry.getKey(), entry.getValue().join());
+                } catch (CompletionException ex) {
+                    Throwable cause = ex.getCause() == null ? ex : ex.getCause();
+                    if (failure == null)
+                        failure = new RuntimeException("Failed to transform " + entry.getKey(), cause);
+                    else if (!hasSuppressed(failure, cause))
+                        failure.addSuppressed(cause);
+                }
+            }
+            if (failure != null)
+                throw failure;
+            return results;
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    private Artifact.Cached materialize(Artifact artifact) {
+        if (!artifact.isPresent())
+            return (Artifact.Cached)Artifact.none();
+        Artifact.Cached cached = artifact.optionallyCache(cache);
+        try {
+            cached.asFile();
+        } catch (IOException ex) {
+            throw new CompletionException(ex);
+        }
+        return cached;
+    }
+
+    private static boolean hasSuppressed(Throwable failure, Throwable cause) {
+        if (failure.getCause() == cause) return true;
+        for (Throwable t : failure.getSuppressed())
+            if (t == cause) return true;
+        return false;
+    }
+
+    private static String key(ArtifactIdentifier identifier, ArtifactMetadata metadata) {
+        return identifier.getGroup() + ':' + identifier.getName() + ':' + identifier.getVersion() + ':' +
+                (identifier.getClassifier() == null ? "" : identifier.getClassifier()) + '@' +
+                identifier.getExtension() + '#' + metadata.getHash();
+    }
+
+    public static final class Node {
+        private final String key;
+        private final ArtifactIdentifier identifier;
+        private final ArtifactMetadata metadata;
+        private final Artifact artifact;
+        private final Node input;
+        private final ArtifactTransformer transformer;
+
+        private Node(String key, ArtifactIdentifier identifier, ArtifactMetadata metadata, Artifact artifact, Node input, ArtifactTransformer transformer) {
+            this.key = key;
+            this.identifier = identifier;
+            this.metadata = metadata;
+            this.artifact = artifact;
+            this.input = input;
+            this.transformer = transformer;
+        }
+
+        public ArtifactIdentifier getIdentifier() {
+            return identifier;
+        }
+
+        public ArtifactMetadata getMetadata() {
+            return metadata;
+        }
+
+        /**
+         * @return The node this one transforms, or null if this is a source node.
+         */
+        public Node getInput() {
+            return input;
+        }
+
+        @Override
+        public String toString() {
+            return "Node(" + key + ")";
+        }
+    }
+
+}
@@ -0,0 +1,96 @@
+/*
+ * Artifactural
+ * Copyright (c) 2018-2021.
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation version 2.1
+ * of the License.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+
+package net.minecraftforge.artifactural.base.util;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Creates the executors used for blocking work, such as generating artifacts, populating caches and talking to
+ * repositories, so every part of the library runs that work the same way and it can be swapped out in one place.
+ *
+ * On runtimes with virtual threads, Java 21 and newer, tasks run on them, with {@code parallelism} limiting how many run at once, so fanning
+ * out thousands of tasks that mostly wait on I/O costs little more than the tasks themselves. Older runtimes get a
+ * bounded pool of daemon platform threads. Setting the {@code artifactural.executor} system property to {@code platform}
+ * forces the pool, and {@link #setFactory(Factory)} replaces both.
+ */
+public final class BlockingExecutors {
+    public static final Factory PLATFORM = BlockingExecutors::createPlatform;
+    private static volatile Factory factory = getDefault();
+
+    private BlockingExecutors() {}
+
+    /**
+     * @param name Base name of the threads, used in thread dumps
+     * @param parallelism Maximum number of tasks run at once
+     */
+    public static ExecutorService create(String name, int parallelism) {
+        if (parallelism < 1)
+            throw new IllegalArgumentException("Parallelism must be at least 1: " + parallelism);
+        return factory.create(name, parallelism);
+    }
+
+    public static Factory getFactory() {
+        return factory;
+    }
+
+    /**
+     * Replaces how executors are created from now on, null restores the default.
+     */
+    public static void setFactory(Factory value) {
+        factory = value == null ? getDefault() : value;
+    }
+
+    /**
+     * @return True if new executors run their tasks on virtual threads
+     */
+    public static boolean isVirtual() {
+        return VirtualThreads.FACTORY != null && factory == VirtualThreads.FACTORY;
+    }
+
+    private static Factory getDefault() {
+        if (VirtualThreads.FACTORY == null || "platform".equals(System.getProperty("artifactural.executor")))
+            return PLATFORM;
+        return VirtualThreads.FACTORY;
+    }
+
+    private static ExecutorService createPlatform(String name, int parallelism) {
+        AtomicInteger counter = new AtomicInteger(0);
+        ThreadPoolExecutor executor = new ThreadPoolExecutor(parallelism, parallelism, 30, TimeUnit.SECONDS, new LinkedBlockingQueue<>(), r -> {
+            Thread thread = new Thread(r, name + " #" + counter.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+        executor.allowCoreThreadTimeOut(true);
+        return executor;
+    }
+
+    @FunctionalInterface
+    public interface Factory {
+        /**
+         * @return A new executor that runs at most {@code parallelism} tasks at once, and whose threads don't keep the JVM alive
+         */
+        ExecutorService create(String name, int parallelism);
+    }
+
+}
@@ -0,0 +1,119 @@
+/*
+ * Artifactural
+ * Copyright (c) 2018-2021.
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation version 2.1
+ * of the License.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+
+package net.minecraftforge.artifactural.base.util;
+
+import java.lang.reflect.Method;
+import java.util.List;
+import java.util.concurrent.AbstractExecutorService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Virtual thread support, looked up reflectively so the same classes build for and run on Java 8.
+ * Every task gets its own virtual thread, which waits for a permit before running, so callers keep their parallelism
+ * limit while queued tasks cost a parked virtual thread instead of a queue slot waiting on a platform thread.
+ */
+final class VirtualThreads {
+    /** Null when virtual threads aren't available. */
+    static final BlockingExecutors.Factory FACTORY = lookup();
+
+    private VirtualThreads() {}
+
+    private static BlockingExecutors.Factory lookup() {
+        try {
+            Method ofVirtual = Thread.class.getMethod("ofVirtual");
+            Class<?> builder = Class.forName("java.lang.Thread$Builder");
+            Method name = builder.getMethod("name", String.class, long.class);
+            Method factory = builder.getMethod("factory");
+            Method perTask = Executors.class.getMethod("newThreadPerTaskExecutor", ThreadFactory.class);
+            // Throws on Java 19 and 20 unless preview features are enabled
+            ofVirtual.invoke(null);
+            return (threadName, parallelism) -> {
+                try {
+                    ThreadFactory threads = (ThreadFactory)factory.invoke(name.invoke(ofVirtual.invoke(null), threadName + " #", 1L));
+                    return new Bounded((ExecutorService)perTask.invoke(null, threads), parallelism);
+                } catch (ReflectiveOperationException e) {
+                    throw new RuntimeException(e);
+                }
+            };
+        } catch (ReflectiveOperationException | RuntimeException e) {
+            return null;
+        }
+    }
+
+    private static final class Bounded extends AbstractExecutorService {
+        private final ExecutorService delegate;
+        private final Semaphore permits;
+
+        private Bounded(ExecutorService delegate, int parallelism) {
+            this.delegate = delegate;
+            this.permits = new Semaphore(parallelism);
+        }
+
+        @Override
+        public void execute(Runnable command) {
+            delegate.execute(() -> {
+                try {
+                    permits.acquire();
+                } catch (InterruptedException e) {
+                    // Shut down before it started, make sure anyone waiting on it finds out
+                    if (command instanceof Future)
+                        ((Future<?>)command).cancel(false);
+                    return;
+                }
+                try {
+                    command.run();
+                } finally {
+                    permits.release();
+                }
+            });
+        }
+
+        @Override
+        public void shutdown() {
+            delegate.shutdown();
+        }
+
+        @Override
+        public List<Runnable> shutdownNow() {
+            return delegate.shutdownNow();
+        }
+
+        @Override
+        public boolean isShutdown() {
+            return delegate.isShutdown();
+        }
+
+        @Override
+        public boolean isTerminated() {
+            return delegate.isTerminated();
+        }
+
+        @Override
+        public boolean awaitTermination(long timeout, TimeUnit unit) throws InterruptedException {
+            return delegate.awaitTermination(timeout, unit);
+        }
+    }
+
+}
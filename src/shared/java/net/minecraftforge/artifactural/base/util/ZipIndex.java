@@ -0,0 +1,347 @@
+/*
+ * Artifactural
+ * Copyright (c) 2018-2021.
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation version 2.1
+ * of the License.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+
+package net.minecraftforge.artifactural.base.util;
+
+import net.minecraftforge.artifactural.api.artifact.Artifact;
+import net.minecraftforge.artifactural.api.artifact.MissingArtifactException;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.SeekableByteChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+import java.util.zip.Inflater;
+import java.util.zip.InflaterInputStream;
+import java.util.zip.ZipException;
+
+/**
+ * Index of the entries in a jar or zip artifact, built from its central directory, so single entries
+ * can be read without streaming the whole archive.
+ *
+ * Building an index only reads the end of the file. It is kept in memory, and persisted beside the archive
+ * in a hidden {@code .[name].zipidx} file, both tied to the archive's size and modification time.
+ * Opening an entry then reads its local header and its own compressed bytes, through {@link Artifact#openRange(long, long)}.
+ *
+ * Example:
+ * <pre>
+ *   ZipIndex index = ZipIndex.of(artifact);
+ *   try (InputStream manifest = index.openEntry("META-INF/MANIFEST.MF")) {
+ *       ...
+ *   }
+ * </pre>
+ */
+public class ZipIndex {
+    private static final int EOCD_SIG = 0x06054b50;
+    private static final int ZIP64_LOCATOR_SIG = 0x07064b50;
+    private static final int ZIP64_EOCD_SIG = 0x06064b50;
+    private static final int CEN_SIG = 0x02014b50;
+    private static final int LOC_SIG = 0x04034b50;
+    private static final int EOCD_SIZE = 22;
+    private static final int LOC_SIZE = 30;
+    private static final int INDEX_MAGIC = 0x5A494401; // 'ZID' then the format version
+    private static final int CACHE_SIZE = 64;
+
+    private static final Map<Path, ZipIndex> CACHE = Collections.synchronizedMap(new LinkedHashMap<Path, ZipIndex>(16, 0.75f, true) {
+        private static final long serialVersionUID = 1L;
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<Path, ZipIndex> eldest) {
+            return size() > CACHE_SIZE;
+        }
+    });
+
+    /**
+     * Gets the index of a cached archive, loading or building it if needed.
+     */
+    public static ZipIndex of(Artifact.Cached artifact) throws IOException, MissingArtifactException {
+        Path file = artifact.getPathLocation();
+        if (!Files.exists(file))
+            file = artifact.asPath();
+        BasicFileAttributes attrs = Files.readAttributes(file, BasicFileAttributes.class);
+        long size = attrs.size();
+        long modified = attrs.lastModifiedTime().toMillis();
+
+        Path key = file.toAbsolutePath();
+        ZipIndex ret = CACHE.get(key);
+        if (ret == null || ret.size != size || ret.modified != modified) {
+            ret = read(getIndexFile(file), size, modified);
+            if (ret == null) {
+                ret = build(file, size, modified);
+                write(getIndexFile(file), ret);
+            }
+            CACHE.put(key, ret);
+        }
+        return ret.bind(artifact);
+    }
+
+    private final long size;
+    private final long modified;
+    private final Map<String, Entry> entries;
+    private final Artifact source;
+
+    private ZipIndex(long size, long modified, Map<String, Entry> entries, Artifact source) {
+        this.size = size;
+        this.modified = modified;
+        this.entries = entries;
+        this.source = source;
+    }
+
+    private ZipIndex bind(Artifact source) {
+        return new ZipIndex(size, modified, entries, source);
+    }
+
+    public Set<String> getNames() {
+        return Collections.unmodifiableSet(entries.keySet());
+    }
+
+    public boolean hasEntry(String name) {
+        return entries.containsKey(name);
+    }
+
+    /**
+     * @return The uncompressed size of the entry, or -1 if it doesn't exist.
+     */
+    public long getSize(String name) {
+        Entry entry = entries.get(name);
+        return entry == null ? -1 : entry.size;
+    }
+
+    /**
+     * Opens the uncompressed contents of a single entry.
+     *
+     * @return Null if there is no such entry
+     */
+    public InputStream openEntry(String name) throws IOException {
+        Entry entry = entries.get(name);
+        if (entry == null)
+            return null;
+
+        ByteBuffer loc = ByteBuffer.allocate(LOC_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+        try (InputStream in = source.openRange(entry.offset, LOC_SIZE)) {
+            readFully(in, loc.array());
+        }
+        if (loc.getInt(0) != LOC_SIG)
+            throw new ZipException("Invalid local header for " + name + " at " + entry.offset);
+        long data = entry.offset + LOC_SIZE + (loc.getShort(26) & 0xFFFF) + (loc.getShort(28) & 0xFFFF);
+
+        InputStream raw = source.openRange(data, entry.compressedSize);
+        switch (entry.method) {
+            case 0: return raw;
+            case 8: return new EntryInflaterInputStream(raw);
+            default:
+                raw.close();
+                throw new ZipException("Unsupported compression method " + entry.method + " for " + name);
+        }
+    }
+
+    private static Path getIndexFile(Path file) {
+        return file.resolveSibling('.' + file.getFileName().toString() + ".zipidx");
+    }
+
+    private static ZipIndex build(Path file, long size, long modified) throws IOException {
+        try (SeekableByteChannel channel = Files.newByteChannel(file, StandardOpenOption.READ)) {
+            // The end of central directory record is followed by a comment of up to 64k
+            int tail = (int)Math.min(size, EOCD_SIZE + 0xFFFF);
+            ByteBuffer end = read(channel, size - tail, tail);
+            int eocd = -1;
+            for (int x = tail - EOCD_SIZE; x >= 0; x--) {
+                if (end.getInt(x) == EOCD_SIG) {
+                    eocd = x;
+                    break;
+                }
+            }
+            if (eocd == -1)
+                throw new ZipException("Not a zip file, no end of central directory: " + file);
+
+            long count = end.getShort(eocd + 10) & 0xFFFF;
+            long cenSize = end.getInt(eocd + 12) & 0xFFFFFFFFL;
+            long cenOffset = end.getInt(eocd + 16) & 0xFFFFFFFFL;
+            if ((count == 0xFFFF || cenSize == 0xFFFFFFFFL || cenOffset == 0xFFFFFFFFL) && eocd >= 20 && end.getInt(eocd - 20) == ZIP64_LOCATOR_SIG) {
+                ByteBuffer zip64 = read(channel, end.getLong(eocd - 20 + 8), 56);
+                if (zip64.getInt(0) != ZIP64_EOCD_SIG)
+                    throw new ZipException("Invalid zip64 end of central directory: " + file);
+                count = zip64.getLong(32);
+                cenSize = zip64.getLong(40);
+                cenOffset = zip64.getLong(48);
+            }
+            if (cenSize > Integer.MAX_VALUE)
+                throw new ZipException("Central directory too large: " + file);
+
+            ByteBuffer cen = read(channel, cenOffset, (int)cenSize);
+            Map<String, Entry> entries = new LinkedHashMap<>((int)Math.min(count * 2, Integer.MAX_VALUE / 2));
+            int pos = 0;
+            while (pos + 46 <= cenSize) {
+                if (cen.getInt(pos) != CEN_SIG)
+                    throw new ZipException("Invalid central directory entry at " + (cenOffset + pos) + ": " + file);
+                int method = cen.getShort(pos + 10) & 0xFFFF;
+                long compressed = cen.getInt(pos + 20) & 0xFFFFFFFFL;
+                long uncompressed = cen.getInt(pos + 24) & 0xFFFFFFFFL;
+                int nameLength = cen.getShort(pos + 28) & 0xFFFF;
+                int extraLength = cen.getShort(pos + 30) & 0xFFFF;
+                int commentLength = cen.getShort(pos + 32) & 0xFFFF;
+                long offset = cen.getInt(pos + 42) & 0xFFFFFFFFL;
+                String name = new String(cen.array(), cen.arrayOffset() + pos + 46, nameLength, StandardCharsets.UTF_8);
+
+                // Zip64 extra field, only holds the values that overflowed, in this order
+                int extra = pos + 46 + nameLength;
+                int extraEnd = extra + extraLength;
+                while (extra + 4 <= extraEnd) {
+                    int id = cen.getShort(extra) & 0xFFFF;
+                    int length = cen.getShort(extra + 2) & 0xFFFF;
+                    if (id == 0x0001) {
+                        int field = extra + 4;
+                        if (uncompressed == 0xFFFFFFFFL) { uncompressed = cen.getLong(field); field += 8; }
+                        if (compressed == 0xFFFFFFFFL) { compressed = cen.getLong(field); field += 8; }
+                        if (offset == 0xFFFFFFFFL) { offset = cen.getLong(field); }
+                        break;
+                    }
+                    extra += 4 + length;
+                }
+
+                entries.put(name, new Entry(method, compressed, uncompressed, offset));
+                pos += 46 + nameLength + extraLength + commentLength;
+            }
+            return new ZipIndex(size, modified, entries, null);
+        }
+    }
+
+    private static ByteBuffer read(SeekableByteChannel channel, long position, int length) throws IOException {
+        ByteBuffer buf = ByteBuffer.allocate(length).order(ByteOrder.LITTLE_ENDIAN);
+        channel.position(position);
+        while (buf.hasRemaining()) {
+            if (channel.read(buf) == -1)
+                throw new EOFException();
+        }
+        buf.flip();
+        return buf;
+    }
+
+    private static void readFully(InputStream in, byte[] buf) throws IOException {
+        int pos = 0;
+        while (pos < buf.length) {
+            int read = in.read(buf, pos, buf.length - pos);
+            if (read == -1)
+                throw new EOFException();
+            pos += read;
+        }
+    }
+
+    private static ZipIndex read(Path index, long size, long modified) {
+        if (!Files.exists(index))
+            return null;
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(index)))) {
+            if (in.readInt() != INDEX_MAGIC || in.readLong() != size || in.readLong() != modified)
+                return null;
+            int count = in.readInt();
+            Map<String, Entry> entries = new LinkedHashMap<>(count * 2);
+            for (int x = 0; x < count; x++)
+                entries.put(in.readUTF(), new Entry(in.readUnsignedShort(), in.readLong(), in.readLong(), in.readLong()));
+            return new ZipIndex(size, modified, entries, null);
+        } catch (IOException e) {
+            return null; // Torn or from an older format, rebuild it
+        }
+    }
+
+    private static void write(Path index, ZipIndex zip) {
+        try {
+            // Not Files.createTempFile, which would make it readable only by us
+            Path tmp = index.resolveSibling(index.getFileName() + "." + UUID.randomUUID() + ".tmp");
+            try {
+                try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(tmp, StandardOpenOption.CREATE_NEW, StandardOpenOption.WRITE)))) {
+                    out.writeInt(INDEX_MAGIC);
+                    out.writeLong(zip.size);
+                    out.writeLong(zip.modified);
+                    out.writeInt(zip.entries.size());
+                    for (Map.Entry<String, Entry> e : zip.entries.entrySet()) {
+                        Entry entry = e.getValue();
+                        out.writeUTF(e.getKey());
+                        out.writeShort(entry.method);
+                        out.writeLong(entry.compressedSize);
+                        out.writeLong(entry.size);
+                        out.writeLong(entry.offset);
+                    }
+                }
+                Files.move(tmp, index, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            } finally {
+                Files.deleteIfExists(tmp);
+            }
+        } catch (IOException e) {
+            // Only a cache, the next daemon will build it again
+        }
+    }
+
+    private static class Entry {
+        private final int method;
+        private final long compressedSize;
+        private final long size;
+        private final long offset;
+
+        private Entry(int method, long compressedSize, long size, long offset) {
+            this.method = method;
+            this.compressedSize = compressedSize;
+            this.size = size;
+            this.offset = offset;
+        }
+    }
+
+    private static class EntryInflaterInputStream extends InflaterInputStream {
+        private boolean eof = false;
+
+        private EntryInflaterInputStream(InputStream in) {
+            super(in, new Inflater(true), 8192);
+        }
+
+        // A raw inflater can need one byte past the end of the data to finish, same as ZipFile does.
+        @Override
+        protected void fill() throws IOException {
+            if (eof)
+                throw new EOFException("Unexpected end of entry");
+            len = in.read(buf, 0, buf.length);
+            if (len == -1) {
+                buf[0] = 0;
+                len = 1;
+                eof = true;
+            }
+            inf.setInput(buf, 0, len);
+        }
+
+        @Override
+        public void close() throws IOException {
+            super.close();
+            inf.end();
+        }
+    }
+
+}